@@ -0,0 +1,352 @@
+package com.yzg365.common.dao;
+
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.yzg365.common.annotation.ItemClass;
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 一对多关系的封装计划，用于 JdbcBaseDao.queryToList(sql, params, clazz, agreKey)
+ * `items.itemId` 形式的列名按 (Vo类型, agreKey, 结果集的列) 只解析一次并缓存在 EntityMeta 中
+ * 之后直接从 ResultSet 读取，一次遍历完成分组，不再经过 List<Map>
+ *
+ * 支持多层嵌套，如 `items.details.num`，每一层的 List 属性上都需要 @ItemClass 注解
+ * 最底层每行对应一个元素；中间层相邻行的本层各列值相同时视为同一个元素
+ * 本层各列都为NULL的行(如 LEFT JOIN 没有匹配)不产生元素
+ * agreKey 可以是逗号隔开的多个列，值都相同的相邻行封装成一个Vo，结果集需要按agreKey排序
+ */
+final class AggregatePlan {
+
+	private final Node root;
+	/** agreKey 对应的列下标，从1开始 */
+	private final int[] keyColumns;
+
+	private AggregatePlan(Node root, int[] keyColumns) {
+		this.root = root;
+		this.keyColumns = keyColumns;
+	}
+
+	/**
+	 * 获取结果集对应的封装计划，相同列的结果集共用一个
+	 *
+	 * @param meta
+	 * @param rsMetaData
+	 * @param agreKey
+	 * @return
+	 * @throws SQLException
+	 */
+	static AggregatePlan forResultSet(EntityMeta meta, ResultSetMetaData rsMetaData, String agreKey) throws SQLException {
+		int cnt = rsMetaData.getColumnCount();
+		String[] labels = new String[cnt];
+		StringBuilder layout = new StringBuilder(agreKey).append('\u0002');
+		for (int i = 0; i < cnt; i++) {
+			labels[i] = rsMetaData.getColumnLabel(i + 1);
+			layout.append(labels[i]).append('\u0001');
+		}
+		String key = layout.toString();
+		AggregatePlan plan = meta.getAggregatePlan(key);
+		if (plan == null) {
+			plan = compile(meta, labels, agreKey);
+			meta.putAggregatePlan(key, plan);
+		}
+		return plan;
+	}
+
+	private static AggregatePlan compile(EntityMeta meta, String[] labels, String agreKey) {
+		NodeBuilder root = new NodeBuilder(meta);
+		for (int i = 0; i < labels.length; i++) {
+			String[] path = labels[i].split("\\.");
+			NodeBuilder node = root;
+			for (int j = 0; j < path.length - 1; j++) {
+				node = node.child(path[j]);
+			}
+			PropertyWriter writer = node.meta.getWriterByColumn(path[path.length - 1]);
+			if (writer != null) {
+				node.columns.add(i + 1);
+				node.writers.add(writer);
+			}
+		}
+
+		String[] keys = agreKey.split(",");
+		int[] keyColumns = new int[keys.length];
+		for (int k = 0; k < keys.length; k++) {
+			String key = keys[k].trim();
+			keyColumns[k] = -1;
+			for (int i = 0; i < labels.length; i++) {
+				if (labels[i].equals(key)) {
+					keyColumns[k] = i + 1;
+					break;
+				}
+			}
+			if (keyColumns[k] < 0) {
+				throw new YzgRuntimeException("结果集中没有 agreKey 对应的列: " + key);
+			}
+		}
+		return new AggregatePlan(root.build(), keyColumns);
+	}
+
+	/**
+	 * 开始一次封装，返回的对象记录封装过程中的状态，只能用于一个结果集
+	 */
+	Aggregator newAggregator() {
+		return new Aggregator();
+	}
+
+	/**
+	 * 封装状态，依次传入结果集的每一行，agreKey 变化时返回已经封装完成的Vo
+	 */
+	final class Aggregator implements RowGrouper {
+		private Instance current;
+		private Object lastKey;
+
+		@Override
+		public Object row(ResultSet rs) throws SQLException {
+			Object key = readKey(rs);
+			Object done = null;
+			if (current == null || !equal(key, lastKey)) {
+				done = current == null ? null : current.bean;
+				current = root.create(root.read(rs));
+				current.filled = new boolean[root.columns.length];
+				for (int i = 0; i < root.columns.length; i++) {
+					current.filled[i] = current.values[i] != null;
+				}
+				lastKey = key;
+			}
+			else {
+				root.fill(current, rs);
+			}
+			root.addChildren(current, rs);
+			return done;
+		}
+
+		@Override
+		public Object finish() {
+			Object done = current == null ? null : current.bean;
+			current = null;
+			return done;
+		}
+
+		private Object readKey(ResultSet rs) throws SQLException {
+			if (keyColumns.length == 1) {
+				return rs.getObject(keyColumns[0]);
+			}
+			Object[] key = new Object[keyColumns.length];
+			for (int i = 0; i < keyColumns.length; i++) {
+				key[i] = rs.getObject(keyColumns[i]);
+			}
+			return Arrays.asList(key);
+		}
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * 一层对象的封装方式
+	 */
+	private static final class Node {
+		final EntityMeta meta;
+		/** 本层属性对应的列下标，从1开始 */
+		final int[] columns;
+		final PropertyWriter[] writers;
+		/** 本层的 List 属性 */
+		final PropertyWriter[] listWriters;
+		final Node[] children;
+
+		Node(EntityMeta meta, int[] columns, PropertyWriter[] writers, PropertyWriter[] listWriters, Node[] children) {
+			this.meta = meta;
+			this.columns = columns;
+			this.writers = writers;
+			this.listWriters = listWriters;
+			this.children = children;
+		}
+
+		Object[] read(ResultSet rs) throws SQLException {
+			Object[] values = new Object[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				values[i] = writers[i].read(rs, columns[i]);
+			}
+			return values;
+		}
+
+		Instance create(Object[] values) {
+			Instance instance = new Instance(meta.newInstance(), values, children.length);
+			try {
+				for (int i = 0; i < values.length; i++) {
+					writers[i].write(instance.bean, values[i]);
+				}
+			}
+			catch (Exception e) {
+				throw new YzgRuntimeException(e);
+			}
+			return instance;
+		}
+
+		/**
+		 * 同一个Vo的后续行，只补充之前为NULL的属性
+		 */
+		void fill(Instance instance, ResultSet rs) throws SQLException {
+			try {
+				for (int i = 0; i < columns.length; i++) {
+					if (instance.filled[i]) {
+						continue;
+					}
+					Object value = writers[i].read(rs, columns[i]);
+					if (value != null) {
+						writers[i].write(instance.bean, value);
+						instance.filled[i] = true;
+					}
+				}
+			}
+			catch (SQLException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new YzgRuntimeException(e);
+			}
+		}
+
+		/**
+		 * 将当前行中各个 List 属性的元素加入 parent
+		 */
+		void addChildren(Instance parent, ResultSet rs) throws SQLException {
+			for (int c = 0; c < children.length; c++) {
+				Node child = children[c];
+				Object[] values = child.read(rs);
+				boolean leaf = child.children.length == 0;
+				Instance last = parent.last[c];
+				Instance item;
+				if (!leaf && last != null && Arrays.equals(values, last.values)) {
+					item = last;
+				}
+				else {
+					if (isAllNull(values) && !child.hasValue(rs)) {
+						continue;
+					}
+					item = child.create(values);
+					if (parent.lists[c] == null) {
+						parent.lists[c] = new ArrayList<Object>();
+						try {
+							listWriters[c].write(parent.bean, parent.lists[c]);
+						}
+						catch (Exception e) {
+							throw new YzgRuntimeException(e);
+						}
+					}
+					parent.lists[c].add(item.bean);
+					parent.last[c] = item;
+				}
+				child.addChildren(item, rs);
+			}
+		}
+
+		/**
+		 * 下层是否有值，本层都为NULL但下层有值时仍然创建本层元素
+		 */
+		private boolean hasValue(ResultSet rs) throws SQLException {
+			for (Node child : children) {
+				if (!isAllNull(child.read(rs)) || child.hasValue(rs)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean isAllNull(Object[] values) {
+			for (Object value : values) {
+				if (value != null) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * 封装过程中的一个对象
+	 */
+	private static final class Instance {
+		final Object bean;
+		final Object[] values;
+		/** 根对象各属性是否已经有值 */
+		boolean[] filled;
+		final List<Object>[] lists;
+		/** 各个 List 属性最后加入的元素 */
+		final Instance[] last;
+
+		@SuppressWarnings("unchecked")
+		Instance(Object bean, Object[] values, int childCount) {
+			this.bean = bean;
+			this.values = values;
+			this.lists = new List[childCount];
+			this.last = new Instance[childCount];
+		}
+	}
+
+	/**
+	 * 解析列名时使用的可变结构
+	 */
+	private static final class NodeBuilder {
+		final EntityMeta meta;
+		final List<Integer> columns = new ArrayList<Integer>();
+		final List<PropertyWriter> writers = new ArrayList<PropertyWriter>();
+		final Map<String, NodeBuilder> children = new LinkedHashMap<String, NodeBuilder>();
+		final Map<String, PropertyWriter> listWriters = new LinkedHashMap<String, PropertyWriter>();
+
+		NodeBuilder(EntityMeta meta) {
+			this.meta = meta;
+		}
+
+		NodeBuilder child(String property) {
+			NodeBuilder child = children.get(property);
+			if (child == null) {
+				PropertyWriter listWriter = meta.getWriter(property);
+				Field field = findField(meta.getEntityClass(), property);
+				ItemClass itemClass = field == null ? null : field.getAnnotation(ItemClass.class);
+				if (listWriter == null || itemClass == null) {
+					throw new YzgRuntimeException(meta.getEntityClass().getName() + "." + property
+							+ " 不是带有 @ItemClass 注解的可写属性");
+				}
+				child = new NodeBuilder(EntityMeta.of(itemClass.clazz()));
+				children.put(property, child);
+				listWriters.put(property, listWriter);
+			}
+			return child;
+		}
+
+		Node build() {
+			int[] cols = new int[columns.size()];
+			for (int i = 0; i < cols.length; i++) {
+				cols[i] = columns.get(i);
+			}
+			Node[] nodes = new Node[children.size()];
+			int i = 0;
+			for (NodeBuilder child : children.values()) {
+				nodes[i++] = child.build();
+			}
+			return new Node(meta, cols, writers.toArray(new PropertyWriter[writers.size()]),
+					listWriters.values().toArray(new PropertyWriter[listWriters.size()]), nodes);
+		}
+
+		private static Field findField(Class<?> clazz, String name) {
+			for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+				try {
+					return c.getDeclaredField(name);
+				}
+				catch (NoSuchFieldException e) {
+					// 继续查找父类
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,418 @@
+package com.yzg365.common.dao;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按列保存的查询结果，通过 JdbcBaseDao.queryToColumns 查询，用于读取大量数值的统计分析
+ * 数值列保存为 long int double 基本类型，字符串列按字典编码，每列一个null 位图，读取时不装箱
+ * 每列按块(CHUNK_SIZE 个值)增长，扩容时不复制已有的数据
+ *
+ * 列的类型由 ResultSetMetaData.getColumnType 决定：
+ * BIGINT 无符号INTEGER 以及 scale 为0 且 precision 不超过18 的 DECIMAL NUMERIC 为 LongColumn
+ * INTEGER SMALLINT TINYINT BIT BOOLEAN 为 IntColumn，DOUBLE FLOAT REAL 以及其它 DECIMAL NUMERIC 为 DoubleColumn
+ * CHAR VARCHAR 等字符类型为 StringColumn，其它类型为 ObjectColumn
+ */
+public class ColumnarResult {
+
+	static final int CHUNK_SHIFT = 13;
+	/** 每块的值的个数 */
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final Column[] columns;
+	private final Map<String, Integer> labelIndex = new HashMap<String, Integer>();
+	private int rowCount = 0;
+
+	private ColumnarResult(Column[] columns) {
+		this.columns = columns;
+		for (int i = 0; i < columns.length; i++) {
+			if (!labelIndex.containsKey(columns[i].label)) {
+				labelIndex.put(columns[i].label, i);
+			}
+		}
+	}
+
+	/**
+	 * 读取结果集剩余的所有行
+	 */
+	static ColumnarResult read(ResultSet rs) throws SQLException {
+		ResultSetMetaData md = rs.getMetaData();
+		int cnt = md.getColumnCount();
+		Column[] columns = new Column[cnt];
+		for (int i = 0; i < cnt; i++) {
+			columns[i] = newColumn(md, i + 1);
+		}
+		ColumnarResult result = new ColumnarResult(columns);
+		while (rs.next()) {
+			int row = result.rowCount;
+			for (int i = 0; i < cnt; i++) {
+				columns[i].read(rs, i + 1, row);
+			}
+			result.rowCount++;
+		}
+		for (Column column : columns) {
+			column.size = result.rowCount;
+		}
+		return result;
+	}
+
+	private static Column newColumn(ResultSetMetaData md, int index) throws SQLException {
+		String label = md.getColumnLabel(index);
+		switch (md.getColumnType(index)) {
+		case Types.BIGINT:
+			return new LongColumn(label);
+		case Types.INTEGER:
+			// 无符号 INT 超出 int 的范围
+			return md.isSigned(index) ? new IntColumn(label) : new LongColumn(label);
+		case Types.SMALLINT:
+		case Types.TINYINT:
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return new IntColumn(label);
+		case Types.DOUBLE:
+		case Types.FLOAT:
+		case Types.REAL:
+			return new DoubleColumn(label);
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			if (md.getScale(index) == 0 && md.getPrecision(index) > 0 && md.getPrecision(index) <= 18) {
+				return new LongColumn(label);
+			}
+			return new DoubleColumn(label);
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+			return new StringColumn(label);
+		default:
+			return new ObjectColumn(label);
+		}
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * @param index
+	 *            从0开始
+	 */
+	public Column getColumn(int index) {
+		return columns[index];
+	}
+
+	/**
+	 * 列的别名对应的列，没有时返回null，同名的列取第一个
+	 */
+	public Column getColumn(String label) {
+		Integer index = labelIndex.get(label);
+		return index == null ? null : columns[index];
+	}
+
+	public LongColumn getLongColumn(String label) {
+		return (LongColumn) require(label);
+	}
+
+	public IntColumn getIntColumn(String label) {
+		return (IntColumn) require(label);
+	}
+
+	public DoubleColumn getDoubleColumn(String label) {
+		return (DoubleColumn) require(label);
+	}
+
+	public StringColumn getStringColumn(String label) {
+		return (StringColumn) require(label);
+	}
+
+	private Column require(String label) {
+		Column column = getColumn(label);
+		if (column == null) {
+			throw new IllegalArgumentException("没有列: " + label);
+		}
+		return column;
+	}
+
+	/**
+	 * 一列的值，null 记录在位图中，null 对应的基本类型的值为0
+	 */
+	public abstract static class Column {
+		private final String label;
+		/** 没有null 时为null */
+		private BitSet nulls;
+		int size;
+
+		Column(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public boolean isNull(int row) {
+			checkRow(row);
+			return nulls != null && nulls.get(row);
+		}
+
+		/**
+		 * null 的个数
+		 */
+		public int getNullCount() {
+			return nulls == null ? 0 : nulls.cardinality();
+		}
+
+		/**
+		 * 装箱后的值，null 返回null
+		 */
+		public abstract Object get(int row);
+
+		abstract void read(ResultSet rs, int index, int row) throws SQLException;
+
+		void setNull(int row) {
+			if (nulls == null) {
+				nulls = new BitSet();
+			}
+			nulls.set(row);
+		}
+
+		void checkRow(int row) {
+			if (row < 0 || row >= size) {
+				throw new IndexOutOfBoundsException("row: " + row + ", size: " + size);
+			}
+		}
+	}
+
+	public static final class LongColumn extends Column {
+		private final List<long[]> chunks = new ArrayList<long[]>();
+
+		LongColumn(String label) {
+			super(label);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if ((row & CHUNK_MASK) == 0) {
+				chunks.add(new long[CHUNK_SIZE]);
+			}
+			long value = rs.getLong(index);
+			if (value == 0 && rs.wasNull()) {
+				setNull(row);
+			}
+			chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK] = value;
+		}
+
+		public long getLong(int row) {
+			checkRow(row);
+			return chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK];
+		}
+
+		@Override
+		public Object get(int row) {
+			return isNull(row) ? null : Long.valueOf(getLong(row));
+		}
+
+		/**
+		 * 复制为一个数组
+		 */
+		public long[] toArray() {
+			long[] ret = new long[size];
+			for (int i = 0, from = 0; from < size; i++, from += CHUNK_SIZE) {
+				System.arraycopy(chunks.get(i), 0, ret, from, Math.min(CHUNK_SIZE, size - from));
+			}
+			return ret;
+		}
+	}
+
+	public static final class IntColumn extends Column {
+		private final List<int[]> chunks = new ArrayList<int[]>();
+
+		IntColumn(String label) {
+			super(label);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if ((row & CHUNK_MASK) == 0) {
+				chunks.add(new int[CHUNK_SIZE]);
+			}
+			int value = rs.getInt(index);
+			if (value == 0 && rs.wasNull()) {
+				setNull(row);
+			}
+			chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK] = value;
+		}
+
+		public int getInt(int row) {
+			checkRow(row);
+			return chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK];
+		}
+
+		@Override
+		public Object get(int row) {
+			return isNull(row) ? null : Integer.valueOf(getInt(row));
+		}
+
+		public int[] toArray() {
+			int[] ret = new int[size];
+			for (int i = 0, from = 0; from < size; i++, from += CHUNK_SIZE) {
+				System.arraycopy(chunks.get(i), 0, ret, from, Math.min(CHUNK_SIZE, size - from));
+			}
+			return ret;
+		}
+	}
+
+	public static final class DoubleColumn extends Column {
+		private final List<double[]> chunks = new ArrayList<double[]>();
+
+		DoubleColumn(String label) {
+			super(label);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if ((row & CHUNK_MASK) == 0) {
+				chunks.add(new double[CHUNK_SIZE]);
+			}
+			double value = rs.getDouble(index);
+			if (value == 0 && rs.wasNull()) {
+				setNull(row);
+			}
+			chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK] = value;
+		}
+
+		public double getDouble(int row) {
+			checkRow(row);
+			return chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK];
+		}
+
+		@Override
+		public Object get(int row) {
+			return isNull(row) ? null : Double.valueOf(getDouble(row));
+		}
+
+		public double[] toArray() {
+			double[] ret = new double[size];
+			for (int i = 0, from = 0; from < size; i++, from += CHUNK_SIZE) {
+				System.arraycopy(chunks.get(i), 0, ret, from, Math.min(CHUNK_SIZE, size - from));
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * 字典编码的字符串列，相同的字符串只保存一份，每行保存字典中的下标，null 的下标为 -1
+	 */
+	public static final class StringColumn extends Column {
+		private final List<int[]> chunks = new ArrayList<int[]>();
+		private final Map<String, Integer> codes = new HashMap<String, Integer>();
+		private final List<String> dictionary = new ArrayList<String>();
+
+		StringColumn(String label) {
+			super(label);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if ((row & CHUNK_MASK) == 0) {
+				chunks.add(new int[CHUNK_SIZE]);
+			}
+			String value = rs.getString(index);
+			int code;
+			if (value == null) {
+				setNull(row);
+				code = -1;
+			}
+			else {
+				Integer c = codes.get(value);
+				if (c == null) {
+					c = dictionary.size();
+					codes.put(value, c);
+					dictionary.add(value);
+				}
+				code = c;
+			}
+			chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK] = code;
+		}
+
+		/**
+		 * 字典中的下标，null 为 -1
+		 */
+		public int getCode(int row) {
+			checkRow(row);
+			return chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK];
+		}
+
+		public String getString(int row) {
+			int code = getCode(row);
+			return code < 0 ? null : dictionary.get(code);
+		}
+
+		@Override
+		public Object get(int row) {
+			return getString(row);
+		}
+
+		/**
+		 * 不重复的字符串，按第一次出现的顺序
+		 */
+		public String[] getDictionary() {
+			return dictionary.toArray(new String[dictionary.size()]);
+		}
+
+		public int[] toCodeArray() {
+			int[] ret = new int[size];
+			for (int i = 0, from = 0; from < size; i++, from += CHUNK_SIZE) {
+				System.arraycopy(chunks.get(i), 0, ret, from, Math.min(CHUNK_SIZE, size - from));
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * 其它类型，保存 getObject 的结果
+	 */
+	public static final class ObjectColumn extends Column {
+		private final List<Object[]> chunks = new ArrayList<Object[]>();
+
+		ObjectColumn(String label) {
+			super(label);
+		}
+
+		@Override
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			if ((row & CHUNK_MASK) == 0) {
+				chunks.add(new Object[CHUNK_SIZE]);
+			}
+			Object value = rs.getObject(index);
+			if (value == null) {
+				setNull(row);
+			}
+			chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK] = value;
+		}
+
+		@Override
+		public Object get(int row) {
+			checkRow(row);
+			return chunks.get(row >>> CHUNK_SHIFT)[row & CHUNK_MASK];
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package com.yzg365.common.dao;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 一行查询结果的 Map 表示，值保存在数组中，列名到下标的索引(KeyIndex)由同一个结果集的所有行共用
+ * 每行只保存一个数组，不再为每行建立一个 HashMap，也不需要对每个列名重复计算hash
+ *
+ * 可以像普通 Map 一样修改，put 新的key 时会加入共用的索引，不影响其它行的内容
+ * 与 HashMap 一样不是线程安全的
+ */
+final class CompactRowMap extends AbstractMap<String, Object> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** 表示没有这个key，与值为null区分 */
+	private static final Object NONE = new None();
+
+	private static final class None implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private Object readResolve() {
+			return NONE;
+		}
+	}
+
+	private final KeyIndex index;
+	private Object[] values;
+	private int size;
+
+	/**
+	 * @param index
+	 * @param capacity
+	 *            预计的key 数
+	 */
+	CompactRowMap(KeyIndex index, int capacity) {
+		this.index = index;
+		this.values = new Object[capacity];
+		Arrays.fill(values, NONE);
+	}
+
+	/**
+	 * 按下标赋值，下标由 KeyIndex.add 得到
+	 */
+	void set(int pos, Object value) {
+		if (pos >= values.length) {
+			grow(pos + 1);
+		}
+		if (values[pos] == NONE) {
+			size++;
+		}
+		values[pos] = value;
+	}
+
+	private void grow(int minCapacity) {
+		int oldLength = values.length;
+		values = Arrays.copyOf(values, Math.max(minCapacity, oldLength + (oldLength >> 1) + 1));
+		Arrays.fill(values, oldLength, values.length, NONE);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int pos = index.indexOf(key);
+		return pos >= 0 && pos < values.length && values[pos] != NONE;
+	}
+
+	@Override
+	public Object get(Object key) {
+		int pos = index.indexOf(key);
+		if (pos < 0 || pos >= values.length) {
+			return null;
+		}
+		Object value = values[pos];
+		return value == NONE ? null : value;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		int pos = index.add(key);
+		Object old = pos < values.length ? values[pos] : NONE;
+		set(pos, value);
+		return old == NONE ? null : old;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		int pos = index.indexOf(key);
+		if (pos < 0 || pos >= values.length || values[pos] == NONE) {
+			return null;
+		}
+		Object old = values[pos];
+		values[pos] = NONE;
+		size--;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(values, NONE);
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+		private int next = advance(0);
+		private int last = -1;
+
+		private int advance(int from) {
+			while (from < values.length && values[from] == NONE) {
+				from++;
+			}
+			return from;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < values.length;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			last = next;
+			next = advance(next + 1);
+			return new Entry(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			values[last] = NONE;
+			size--;
+			last = -1;
+		}
+	}
+
+	private final class Entry implements Map.Entry<String, Object> {
+		private final int pos;
+
+		Entry(int pos) {
+			this.pos = pos;
+		}
+
+		@Override
+		public String getKey() {
+			return index.keyAt(pos);
+		}
+
+		@Override
+		public Object getValue() {
+			return values[pos];
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			Object old = values[pos];
+			values[pos] = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object value = getValue();
+			return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object value = getValue();
+			return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	/**
+	 * key 到数组下标的索引，只增加不删除
+	 * 写时复制，读不需要加锁，多个线程修改共用同一个索引的不同行也是安全的
+	 */
+	static final class KeyIndex implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private volatile String[] keys;
+		private volatile HashMap<String, Integer> positions;
+
+		KeyIndex() {
+			this.keys = new String[0];
+			this.positions = new HashMap<String, Integer>();
+		}
+
+		/**
+		 * 由结果集的列名建立索引，列名重复时对应同一个下标
+		 *
+		 * @param labels
+		 */
+		KeyIndex(String[] labels) {
+			this();
+			for (String label : labels) {
+				add(label);
+			}
+		}
+
+		int indexOf(Object key) {
+			Integer pos = positions.get(key);
+			return pos == null ? -1 : pos.intValue();
+		}
+
+		String keyAt(int pos) {
+			return keys[pos];
+		}
+
+		int size() {
+			return keys.length;
+		}
+
+		/**
+		 * 返回key 的下标，不存在时加入
+		 */
+		int add(String key) {
+			Integer pos = positions.get(key);
+			if (pos != null) {
+				return pos.intValue();
+			}
+			synchronized (this) {
+				pos = positions.get(key);
+				if (pos != null) {
+					return pos.intValue();
+				}
+				String[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+				newKeys[keys.length] = key;
+				HashMap<String, Integer> newPositions = new HashMap<String, Integer>(positions);
+				newPositions.put(key, keys.length);
+				// 先发布 keys，保证其它线程看到新的下标时 keyAt 可用
+				keys = newKeys;
+				positions = newPositions;
+				return newKeys.length - 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package com.yzg365.common.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 查询条件，代替多次调用 sqlCondBuilder 拼接，通过 JdbcBaseDao.criteria 创建
+ * 条件的值为null 时忽略该条件，同 sqlCondBuilder；生成的sql 以 " AND " 开头，接在 WHERE 1=1 之后
+ *
+ * <pre>
+ * Criteria c = dao.criteria().eq("status", status).in("id", ids).like("name", name);
+ * dao.queryToList("SELECT * FROM t_order WHERE 1=1" + c.toSql(), c.getParams(), Order.class);
+ * </pre>
+ *
+ * 说明：
+ * 生成的sql 按条件的形状(列, 条件, 占位符个数)缓存，相同形状的查询不再拼接，sql 文本固定，预编译语句缓存可以命中
+ * IN 的占位符个数取2的幂，不足的部分重复最后一个值(见 InClause)，37 个和 41 个值都使用 64 个占位符，共用一条sql
+ * IN 的值超过 maxInListSize 个时分为多组 (col IN(...) OR col IN(...))，每组 maxInListSize 个，最后一组取2的幂
+ * IN 的值为空时条件为 1=0
+ * 非线程安全
+ */
+public class Criteria {
+
+	/** 缓存的sql 最多的条数，超过后新的形状不再缓存 */
+	private static final int MAX_TEMPLATES = 4096;
+	private static final ConcurrentMap<Shape, String> TEMPLATES = new ConcurrentHashMap<Shape, String>();
+
+	private static final String LIKE = "like";
+	private static final String CONTAINS = "contains";
+	private static final String IN = "in";
+
+	private final int maxInListSize;
+	private final List<String> columns = new ArrayList<String>();
+	private final List<String> conds = new ArrayList<String>();
+	/** 每个条件的占位符个数 */
+	private final List<Integer> sizes = new ArrayList<Integer>();
+	private final List<Object> params = new ArrayList<Object>();
+	private String sql;
+
+	/**
+	 * @param maxInListSize
+	 *            IN 中一组最多的占位符个数，取2的幂
+	 */
+	public Criteria(int maxInListSize) {
+		this.maxInListSize = Math.max(1, maxInListSize);
+	}
+
+	public Criteria eq(String columnName, Object val) {
+		return cond(columnName, "=", val);
+	}
+
+	public Criteria ne(String columnName, Object val) {
+		return cond(columnName, "<>", val);
+	}
+
+	public Criteria gt(String columnName, Object val) {
+		return cond(columnName, ">", val);
+	}
+
+	public Criteria ge(String columnName, Object val) {
+		return cond(columnName, ">=", val);
+	}
+
+	public Criteria lt(String columnName, Object val) {
+		return cond(columnName, "<", val);
+	}
+
+	public Criteria le(String columnName, Object val) {
+		return cond(columnName, "<=", val);
+	}
+
+	/**
+	 * columnName like %val%
+	 */
+	public Criteria like(String columnName, Object val) {
+		return cond(columnName, LIKE, val);
+	}
+
+	/**
+	 * 字段包含字符串，INSTR(columnName, val)
+	 */
+	public Criteria contains(String columnName, Object val) {
+		return cond(columnName, CONTAINS, val);
+	}
+
+	/**
+	 * @param values
+	 *            Collection 或逗号隔开的字符串
+	 */
+	public Criteria in(String columnName, Object values) {
+		return cond(columnName, IN, values);
+	}
+
+	/**
+	 * 同 sqlCondBuilder 的条件
+	 *
+	 * @param columnName
+	 * @param cond
+	 *            >, <, >=, <=, =, like, contains, in
+	 * @param val
+	 *            为null 时忽略
+	 */
+	public Criteria cond(String columnName, String cond, Object val) {
+		if (columnName == null || cond == null || val == null) {
+			return this;
+		}
+		sql = null;
+		if (LIKE.equalsIgnoreCase(cond)) {
+			add(columnName, LIKE, 1);
+			params.add("%" + val + "%");
+		}
+		else if (CONTAINS.equalsIgnoreCase(cond)) {
+			add(columnName, CONTAINS, 1);
+			params.add(val);
+		}
+		else if (IN.equalsIgnoreCase(cond)) {
+			List<?> values = toList(val);
+			int size = inSize(values.size(), maxInListSize);
+			add(columnName, IN, size);
+			addInParams(values, maxInListSize, params);
+		}
+		else {
+			add(columnName, cond, 1);
+			params.add(val);
+		}
+		return this;
+	}
+
+	private void add(String columnName, String cond, int size) {
+		columns.add(columnName);
+		conds.add(cond);
+		sizes.add(size);
+	}
+
+	public boolean isEmpty() {
+		return columns.isEmpty();
+	}
+
+	/**
+	 * 条件的sql，以 " AND " 开头，没有条件时为空字符串
+	 */
+	public String toSql() {
+		if (sql == null) {
+			Shape shape = new Shape(columns.toArray(new String[columns.size()]), conds.toArray(new String[conds
+					.size()]), sizes.toArray(new Integer[sizes.size()]), maxInListSize);
+			sql = TEMPLATES.get(shape);
+			if (sql == null) {
+				sql = build(shape);
+				if (TEMPLATES.size() < MAX_TEMPLATES) {
+					TEMPLATES.putIfAbsent(shape, sql);
+				}
+			}
+		}
+		return sql;
+	}
+
+	/**
+	 * 参数，顺序与 toSql 中的?一致
+	 */
+	public Object[] getParams() {
+		return params.toArray();
+	}
+
+	/**
+	 * 追加到已有的参数列表，用于与 sqlCondBuilder 混用
+	 */
+	public void appendParams(List<Object> paramList) {
+		paramList.addAll(params);
+	}
+
+	@Override
+	public String toString() {
+		return toSql() + params;
+	}
+
+	private static String build(Shape shape) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < shape.columns.length; i++) {
+			String columnName = shape.columns[i];
+			String cond = shape.conds[i];
+			if (CONTAINS.equals(cond)) {
+				builder.append(" AND INSTR(").append(columnName).append(", ?) ");
+			}
+			else if (IN.equals(cond)) {
+				builder.append(inSql(columnName, shape.sizes[i], shape.maxInListSize));
+			}
+			else {
+				builder.append(" AND ").append(columnName).append(" ").append(cond).append(" ? ");
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * IN 条件的sql
+	 *
+	 * @param size
+	 *            占位符总数，inSize 的结果
+	 */
+	static String inSql(String columnName, int size, int max) {
+		if (size == 0) {
+			return " AND 1=0 ";
+		}
+		if (size <= max) {
+			return " AND " + columnName + " IN(" + InClause.placeholders(size) + ") ";
+		}
+		StringBuilder builder = new StringBuilder(" AND (");
+		for (int from = 0; from < size; from += max) {
+			builder.append(from == 0 ? "" : " OR ").append(columnName).append(" IN(")
+					.append(InClause.placeholders(Math.min(max, size - from))).append(")");
+		}
+		return builder.append(") ").toString();
+	}
+
+	/**
+	 * n 个值的占位符总数，每组 max 个，最后一组取2的幂
+	 */
+	static int inSize(int n, int max) {
+		if (n == 0) {
+			return 0;
+		}
+		int full = (n - 1) / max * max;
+		return full + InClause.bucket(n - full, max);
+	}
+
+	/**
+	 * 按 inSize 的分组追加参数，每组不足时重复该组的最后一个值
+	 */
+	static void addInParams(List<?> values, int max, List<Object> paramList) {
+		for (int from = 0; from < values.size(); from += max) {
+			int to = Math.min(from + max, values.size());
+			paramList.addAll(Arrays.asList(InClause.params(values, from, to, InClause.bucket(to - from, max))));
+		}
+	}
+
+	/**
+	 * IN 的值，Collection 或逗号隔开的字符串
+	 */
+	static List<?> toList(Object val) {
+		if (val instanceof String) {
+			return Arrays.asList(((String) val).split(","));
+		}
+		if (val instanceof List) {
+			return (List<?>) val;
+		}
+		if (val instanceof Collection) {
+			return new ArrayList<Object>((Collection<?>) val);
+		}
+		if (val instanceof Object[]) {
+			return Arrays.asList((Object[]) val);
+		}
+		return Arrays.asList(val);
+	}
+
+	/**
+	 * 条件的形状，决定生成的sql
+	 */
+	private static final class Shape {
+		final String[] columns;
+		final String[] conds;
+		final Integer[] sizes;
+		final int maxInListSize;
+		private final int hash;
+
+		Shape(String[] columns, String[] conds, Integer[] sizes, int maxInListSize) {
+			this.columns = columns;
+			this.conds = conds;
+			this.sizes = sizes;
+			this.maxInListSize = maxInListSize;
+			this.hash = ((Arrays.hashCode(columns) * 31 + Arrays.hashCode(conds)) * 31 + Arrays.hashCode(sizes)) * 31
+					+ maxInListSize;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Shape)) {
+				return false;
+			}
+			Shape other = (Shape) obj;
+			return hash == other.hash && maxInListSize == other.maxInListSize && Arrays.equals(columns, other.columns)
+					&& Arrays.equals(conds, other.conds) && Arrays.equals(sizes, other.sizes);
+		}
+	}
+}
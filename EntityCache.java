@@ -0,0 +1,224 @@
+package com.yzg365.common.dao;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JdbcBaseDao.get(T) 的缓存，每个Vo 类型一个，通过 JdbcBaseDao.enableEntityCache 打开
+ * 按 (表名, sql, 参数) 缓存查询结果，最多 maxSize 条，按最近最少使用淘汰，超过 ttl 的条目视为失效
+ * 同一Vo 类型在同一张表上的 add update(T) delete 会使该表的所有条目失效
+ *
+ * 失效通过表的版本号实现：写操作只增加版本号，旧版本的条目在访问或淘汰时清除
+ * 查询开始前取得版本号，查询期间发生的写操作会使这次查询的结果不被缓存
+ *
+ * 缓存中保存的是副本，get 返回的也是副本，调用方修改返回的对象不影响缓存
+ */
+public class EntityCache {
+
+	private final EntityMeta meta;
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LinkedHashMap<Key, Entry> entries;
+	private final Map<String, Long> versions = new HashMap<String, Long>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong invalidationCount = new AtomicLong();
+
+	/**
+	 * @param meta
+	 * @param maxSize
+	 *            最多缓存的条目数
+	 * @param ttlMillis
+	 *            条目的有效时间，小于等于0 表示不过期
+	 */
+	EntityCache(EntityMeta meta, final int maxSize, long ttlMillis) {
+		this.meta = meta;
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() > EntityCache.this.maxSize) {
+					evictionCount.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * 查询缓存，没有或已失效时返回null
+	 *
+	 * @param tableName
+	 * @param sql
+	 * @param params
+	 * @return 缓存对象的副本
+	 */
+	Object get(String tableName, String sql, Object[] params) {
+		Key key = new Key(tableName, sql, params);
+		Object bean = null;
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (entry.version != version(tableName)
+						|| (ttlMillis > 0 && System.currentTimeMillis() - entry.createTime > ttlMillis)) {
+					entries.remove(key);
+				}
+				else {
+					bean = entry.bean;
+				}
+			}
+		}
+		if (bean == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return meta.copy(bean);
+	}
+
+	/**
+	 * 查询开始前调用，返回当前的版本号，put 时传入
+	 */
+	synchronized long version(String tableName) {
+		Long version = versions.get(tableName);
+		return version == null ? 0L : version.longValue();
+	}
+
+	/**
+	 * 缓存查询结果，查询期间表有写操作时不缓存
+	 *
+	 * @param tableName
+	 * @param sql
+	 * @param params
+	 * @param version
+	 *            查询开始前 version(tableName) 的返回值
+	 * @param bean
+	 */
+	void put(String tableName, String sql, Object[] params, long version, Object bean) {
+		if (bean == null) {
+			return;
+		}
+		Object copy = meta.copy(bean);
+		synchronized (this) {
+			if (version != version(tableName)) {
+				return;
+			}
+			entries.put(new Key(tableName, sql, params), new Entry(copy, version, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * 表有写操作，使该表的所有条目失效
+	 */
+	synchronized void invalidate(String tableName) {
+		versions.put(tableName, version(tableName) + 1);
+		invalidationCount.incrementAndGet();
+	}
+
+	/**
+	 * 清空缓存
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * 因超过 maxSize 被淘汰的条目数
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * 写操作导致失效的次数
+	 */
+	public long getInvalidationCount() {
+		return invalidationCount.get();
+	}
+
+	public double getHitRate() {
+		long hit = hitCount.get();
+		long total = hit + missCount.get();
+		return total == 0 ? 0D : (double) hit / total;
+	}
+
+	@Override
+	public String toString() {
+		return "EntityCache[" + meta.getEntityClass().getName() + " size=" + size() + " hit=" + getHitCount()
+				+ " miss=" + getMissCount() + " eviction=" + getEvictionCount() + " invalidation="
+				+ getInvalidationCount() + "]";
+	}
+
+	private static final class Entry {
+		final Object bean;
+		final long version;
+		final long createTime;
+
+		Entry(Object bean, long version, long createTime) {
+			this.bean = bean;
+			this.version = version;
+			this.createTime = createTime;
+		}
+	}
+
+	private static final class Key {
+		private final String tableName;
+		private final String sql;
+		private final Object[] params;
+		private final int hash;
+
+		Key(String tableName, String sql, Object[] params) {
+			this.tableName = tableName;
+			this.sql = sql;
+			this.params = params;
+			this.hash = (tableName.hashCode() * 31 + sql.hashCode()) * 31 + Arrays.hashCode(params);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && tableName.equals(other.tableName) && sql.equals(other.sql)
+					&& Arrays.equals(params, other.params);
+		}
+	}
+}
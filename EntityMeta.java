@@ -0,0 +1,544 @@
+package com.yzg365.common.dao;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.yzg365.common.annotation.Column;
+import com.yzg365.common.annotation.Extendable;
+import com.yzg365.common.annotation.Key;
+import com.yzg365.common.annotation.Lazy;
+import com.yzg365.common.annotation.PrimaryKey;
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * Vo 的元数据描述，每个类型只解析一次并缓存
+ * 保存字段对应的列名、转义后的列名、getter 以及 @PrimaryKey @Key @Extendable 标记
+ * JdbcBaseDao 的 add update delete get addList 共用同一份描述，每条记录只需要取值
+ *
+ * 静态字段和没有getter的字段不参与映射
+ * 同时缓存所有可写属性(包括父类)的 setter 和按结果集列编译好的 EntityRowMapper
+ * 以及 add update get delete 生成的 SqlTemplate 、一对多查询的 AggregatePlan 和行转列的 PivotPlan
+ */
+final class EntityMeta {
+
+	private static final ConcurrentMap<Class<?>, EntityMeta> CACHE = new ConcurrentHashMap<Class<?>, EntityMeta>();
+
+	/** 每个类型最多缓存的结果集格式数，超过后不再缓存，防止拼接sql造成无限增长 */
+	private static final int MAX_ROW_MAPPERS = 256;
+
+	/** 每个类型最多缓存的sql模板数，表名由 ITableName 动态决定时也不会无限增长 */
+	private static final int MAX_SQL_TEMPLATES = 1024;
+
+	/**
+	 * 获取类型的元数据，第一次访问时解析
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	static EntityMeta of(Class<?> clazz) {
+		EntityMeta meta = CACHE.get(clazz);
+		if (meta == null) {
+			meta = new EntityMeta(clazz);
+			EntityMeta old = CACHE.putIfAbsent(clazz, meta);
+			if (old != null) {
+				meta = old;
+			}
+		}
+		return meta;
+	}
+
+	/**
+	 * 单个字段的描述
+	 */
+	static final class FieldMeta {
+		/** 在 EntityMeta.fields 中的下标，也是 values() 返回数组中的下标 */
+		final int index;
+		final Field field;
+		final String name;
+		final String columnName;
+		final String escapedColumnName;
+		final Method getter;
+		final boolean primaryKey;
+		final boolean key;
+		final boolean extendable;
+		/** @Lazy 字段，直接读取字段，不调用getter */
+		final boolean lazy;
+
+		FieldMeta(int index, Field field, Method getter) {
+			this.index = index;
+			this.field = field;
+			this.name = field.getName();
+			Column column = field.getAnnotation(Column.class);
+			this.columnName = column != null ? column.columnName() : field.getName();
+			this.escapedColumnName = "`" + columnName + "`";
+			this.getter = getter;
+			this.primaryKey = field.getAnnotation(PrimaryKey.class) != null;
+			this.key = field.getAnnotation(Key.class) != null;
+			this.extendable = field.getAnnotation(Extendable.class) != null;
+			this.lazy = field.getAnnotation(Lazy.class) != null && !primaryKey && !key && !extendable;
+			if (lazy) {
+				field.setAccessible(true);
+			}
+		}
+
+		Object get(Object bean) throws Exception {
+			// getter 中可能触发延迟加载
+			return lazy ? field.get(bean) : getter.invoke(bean);
+		}
+
+		/**
+		 * insert 时是否写入此字段，@PrimaryKey 为自增主键，@Extendable 不保存
+		 */
+		boolean isInsertable() {
+			return !primaryKey && !extendable;
+		}
+	}
+
+	private final Class<?> clazz;
+	private final FieldMeta[] fields;
+	private final List<FieldMeta> fieldList;
+	private final List<FieldMeta> keyFields;
+	private final FieldMeta pk;
+	private final Map<String, FieldMeta> byColumn;
+	private final Map<String, FieldMeta> byName;
+	private final Map<String, PropertyWriter> writers;
+	private final Constructor<?> constructor;
+	/** get 查询的列，父类有字段时为 * */
+	private final String selectColumns;
+	private final List<FieldMeta> lazyFields;
+	private final ConcurrentMap<String, EntityRowMapper> rowMappers = new ConcurrentHashMap<String, EntityRowMapper>();
+	private final ConcurrentMap<String, AggregatePlan> aggregatePlans = new ConcurrentHashMap<String, AggregatePlan>();
+	private final ConcurrentMap<String, PivotPlan> pivotPlans = new ConcurrentHashMap<String, PivotPlan>();
+	private final ConcurrentMap<SqlTemplate.Key, SqlTemplate> sqlTemplates = new ConcurrentHashMap<SqlTemplate.Key, SqlTemplate>();
+
+	private EntityMeta(Class<?> clazz) {
+		this.clazz = clazz;
+		List<FieldMeta> list = new ArrayList<FieldMeta>();
+		List<FieldMeta> keys = new ArrayList<FieldMeta>();
+		Map<String, FieldMeta> columns = new HashMap<String, FieldMeta>();
+		Map<String, FieldMeta> names = new HashMap<String, FieldMeta>();
+		FieldMeta primaryKey = null;
+		FieldMeta seqId = null;
+		for (Field field : clazz.getDeclaredFields()) {
+			// transient 字段和 ITrackable ILazyLoadable 的属性不对应列
+			if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())
+					|| field.isSynthetic() || isInterfaceProperty(clazz, field.getName())) {
+				continue;
+			}
+			Method getter = findGetter(clazz, field);
+			if (getter == null) {
+				continue;
+			}
+			FieldMeta fm = new FieldMeta(list.size(), field, getter);
+			list.add(fm);
+			columns.put(fm.columnName, fm);
+			names.put(fm.name, fm);
+			if (fm.key) {
+				keys.add(fm);
+			}
+			if (fm.primaryKey && primaryKey == null) {
+				primaryKey = fm;
+			}
+			if ("seqId".equals(fm.name)) {
+				seqId = fm;
+			}
+		}
+		this.fields = list.toArray(new FieldMeta[list.size()]);
+		this.fieldList = Collections.unmodifiableList(list);
+		this.keyFields = Collections.unmodifiableList(keys);
+		// 没有@PrimaryKey 注解时默认主键为seqId
+		this.pk = primaryKey != null ? primaryKey : seqId;
+		this.byColumn = columns;
+		this.byName = names;
+		this.writers = findWriters(clazz);
+		this.constructor = findConstructor(clazz);
+		List<FieldMeta> lazy = new ArrayList<FieldMeta>();
+		for (FieldMeta fm : list) {
+			if (fm.lazy) {
+				lazy.add(fm);
+			}
+		}
+		this.lazyFields = Collections.unmodifiableList(lazy);
+		this.selectColumns = buildSelectColumns(clazz, list, names, writers);
+	}
+
+	/**
+	 * 只查询有 setter 的字段对应的列，@Extendable @Lazy 字段不查询
+	 * 以下情况仍然查询所有列，避免原来通过 SELECT * 赋值的属性变为null：
+	 * 父类中有字段(没有对应的 FieldMeta)；有 setter 但没有对应的 FieldMeta 的属性(字段没有getter，或只有 setter)
+	 */
+	private static String buildSelectColumns(Class<?> clazz, List<FieldMeta> fields, Map<String, FieldMeta> names,
+			Map<String, PropertyWriter> writers) {
+		for (Class<?> c = clazz.getSuperclass(); c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers())) {
+					return "*";
+				}
+			}
+		}
+		for (String property : writers.keySet()) {
+			if (names.get(property) == null && !isInterfaceProperty(clazz, property)) {
+				return "*";
+			}
+		}
+		StringBuilder columns = new StringBuilder();
+		for (FieldMeta fm : fields) {
+			if (fm.extendable || fm.lazy || writers.get(fm.name) == null) {
+				continue;
+			}
+			columns.append(columns.length() == 0 ? "" : ",").append(fm.escapedColumnName);
+		}
+		return columns.length() == 0 ? "*" : columns.toString();
+	}
+
+	/**
+	 * ITrackable ILazyLoadable 的属性，不对应列
+	 */
+	private static boolean isInterfaceProperty(Class<?> clazz, String property) {
+		return isTrackableProperty(clazz, property)
+				|| ("lazyLoader".equals(property) && ILazyLoadable.class.isAssignableFrom(clazz));
+	}
+
+	/**
+	 * ITrackable 的原始值，不对应列
+	 */
+	private static boolean isTrackableProperty(Class<?> clazz, String property) {
+		return "originalValues".equals(property) && ITrackable.class.isAssignableFrom(clazz);
+	}
+
+	private static Map<String, PropertyWriter> findWriters(Class<?> clazz) {
+		Map<String, PropertyWriter> map = new HashMap<String, PropertyWriter>();
+		try {
+			BeanInfo beanInfo = Introspector.getBeanInfo(clazz);
+			for (PropertyDescriptor pd : beanInfo.getPropertyDescriptors()) {
+				if (pd.getWriteMethod() != null && pd.getPropertyType() != null) {
+					map.put(pd.getName(), new PropertyWriter(pd));
+				}
+			}
+		}
+		catch (IntrospectionException e) {
+			throw new YzgRuntimeException(e);
+		}
+		return map;
+	}
+
+	private static Constructor<?> findConstructor(Class<?> clazz) {
+		try {
+			Constructor<?> c = clazz.getDeclaredConstructor();
+			c.setAccessible(true);
+			return c;
+		}
+		catch (NoSuchMethodException e) {
+			// 没有无参构造函数的类型只能用于取值，不能封装结果
+			return null;
+		}
+	}
+
+	private static Method findGetter(Class<?> clazz, Field field) {
+		String name = field.getName();
+		String suffix = name.substring(0, 1).toUpperCase() + name.substring(1);
+		Method getter;
+		try {
+			getter = clazz.getDeclaredMethod("get" + suffix);
+		}
+		catch (NoSuchMethodException e) {
+			if (field.getType() != Boolean.TYPE) {
+				return null;
+			}
+			try {
+				getter = clazz.getDeclaredMethod("is" + suffix);
+			}
+			catch (NoSuchMethodException ex) {
+				return null;
+			}
+		}
+		getter.setAccessible(true);
+		return getter;
+	}
+
+	Class<?> getEntityClass() {
+		return clazz;
+	}
+
+	List<FieldMeta> getFields() {
+		return fieldList;
+	}
+
+	int getFieldCount() {
+		return fields.length;
+	}
+
+	List<FieldMeta> getKeyFields() {
+		return keyFields;
+	}
+
+	/**
+	 * 主键字段，可能为null
+	 */
+	FieldMeta getPk() {
+		return pk;
+	}
+
+	/**
+	 * get getAll 查询的列 "`a`,`b`"，不能确定时为 "*"
+	 */
+	String getSelectColumns() {
+		return selectColumns;
+	}
+
+	List<FieldMeta> getLazyFields() {
+		return lazyFields;
+	}
+
+	FieldMeta getByColumn(String columnName) {
+		return byColumn.get(columnName);
+	}
+
+	FieldMeta getByName(String name) {
+		return byName.get(name);
+	}
+
+	/**
+	 * 属性对应的 setter，没有时返回null
+	 */
+	PropertyWriter getWriter(String property) {
+		return writers.get(property);
+	}
+
+	/**
+	 * 结果集列对应的 setter，列名优先按 @Column 对应到字段，否则列名即属性名
+	 */
+	PropertyWriter getWriterByColumn(String columnLabel) {
+		FieldMeta field = byColumn.get(columnLabel);
+		return writers.get(field != null ? field.name : columnLabel);
+	}
+
+	Object newInstance() {
+		if (constructor == null) {
+			throw new YzgRuntimeException(clazz.getName() + " 没有无参构造函数");
+		}
+		try {
+			return constructor.newInstance();
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+	}
+
+	EntityRowMapper getRowMapper(String layout) {
+		return rowMappers.get(layout);
+	}
+
+	void putRowMapper(String layout, EntityRowMapper mapper) {
+		if (rowMappers.size() < MAX_ROW_MAPPERS) {
+			rowMappers.putIfAbsent(layout, mapper);
+		}
+	}
+
+	AggregatePlan getAggregatePlan(String layout) {
+		return aggregatePlans.get(layout);
+	}
+
+	void putAggregatePlan(String layout, AggregatePlan plan) {
+		if (aggregatePlans.size() < MAX_ROW_MAPPERS) {
+			aggregatePlans.putIfAbsent(layout, plan);
+		}
+	}
+
+	PivotPlan getPivotPlan(String layout) {
+		return pivotPlans.get(layout);
+	}
+
+	void putPivotPlan(String layout, PivotPlan plan) {
+		if (pivotPlans.size() < MAX_ROW_MAPPERS) {
+			pivotPlans.putIfAbsent(layout, plan);
+		}
+	}
+
+	SqlTemplate getSqlTemplate(SqlTemplate.Key key) {
+		return sqlTemplates.get(key);
+	}
+
+	/**
+	 * 缓存模板，返回缓存中的模板：已有相同的键时为已有的，超过 MAX_SQL_TEMPLATES 不缓存时为 template
+	 */
+	SqlTemplate putSqlTemplate(SqlTemplate.Key key, SqlTemplate template) {
+		if (sqlTemplates.size() < MAX_SQL_TEMPLATES) {
+			SqlTemplate existing = sqlTemplates.putIfAbsent(key, template);
+			if (existing != null) {
+				return existing;
+			}
+		}
+		return template;
+	}
+
+	/**
+	 * 主键对应的列名
+	 */
+	String getPkColumnName() {
+		if (pk == null) {
+			throw new IllegalStateException(clazz.getName() + " 没有主键字段");
+		}
+		return pk.columnName;
+	}
+
+	/**
+	 * 依次调用所有字段的getter，每个getter只调用一次，@Lazy 字段直接读取字段
+	 *
+	 * @param bean
+	 * @return 下标与 FieldMeta.index 对应
+	 * @throws Exception
+	 */
+	Object[] values(Object bean) throws Exception {
+		Object[] values = new Object[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			values[i] = fields[i].get(bean);
+		}
+		return values;
+	}
+
+	/**
+	 * 变更跟踪：只保留与原始值不同的更新字段，其它更新字段置为null，条件字段(主键或@Key)保持不变
+	 *
+	 * @param values
+	 *            当前值
+	 * @param original
+	 *            ITrackable 中保存的原始值
+	 * @return 没有变化时返回null
+	 */
+	Object[] changedValues(Object[] values, Object[] original) {
+		boolean byPk = hasPkValue(values);
+		Object[] changed = values.clone();
+		boolean dirty = false;
+		for (FieldMeta field : fields) {
+			int i = field.index;
+			if ((byPk && field == pk) || (!byPk && field.key) || field.extendable || field.primaryKey) {
+				continue;
+			}
+			if (values[i] != null && !isSame(values[i], original[i])) {
+				dirty = true;
+			}
+			else {
+				changed[i] = null;
+			}
+		}
+		return dirty ? changed : null;
+	}
+
+	/**
+	 * 更新之后新的原始值，没有更新的null 字段保留之前的原始值
+	 */
+	static Object[] mergeOriginal(Object[] values, Object[] original) {
+		Object[] merged = values.clone();
+		for (int i = 0; i < merged.length; i++) {
+			if (merged[i] == null && original != null && i < original.length) {
+				merged[i] = original[i];
+			}
+		}
+		return merged;
+	}
+
+	private static boolean isSame(Object value, Object original) {
+		if (original == null) {
+			return false;
+		}
+		if (value instanceof BigDecimal && original instanceof BigDecimal) {
+			// 2.0 和 2.00 视为相同
+			return ((BigDecimal) value).compareTo((BigDecimal) original) == 0;
+		}
+		if (value instanceof byte[] && original instanceof byte[]) {
+			return Arrays.equals((byte[]) value, (byte[]) original);
+		}
+		return value.equals(original);
+	}
+
+	/**
+	 * 复制一个Vo，所有有 getter 和 setter 的字段浅复制，用于缓存
+	 * ITrackable 的副本重新记录原始值
+	 */
+	Object copy(Object bean) {
+		Object copy = newInstance();
+		try {
+			for (FieldMeta field : fields) {
+				PropertyWriter writer = writers.get(field.name);
+				if (writer != null) {
+					writer.write(copy, field.get(bean));
+				}
+			}
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+		track(copy);
+		return copy;
+	}
+
+	/**
+	 * 记录 ITrackable 的原始值
+	 */
+	void track(Object bean) {
+		if (bean instanceof ITrackable) {
+			try {
+				((ITrackable) bean).setOriginalValues(values(bean));
+			}
+			catch (Exception e) {
+				throw new YzgRuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * 主键是否由数据库生成，即有主键字段且插入时没有给值
+	 */
+	boolean isPkGenerated(Object[] values) {
+		return pk != null && !isPkValue(values[pk.index]);
+	}
+
+	/**
+	 * 回填主键，值转换为主键属性的类型
+	 */
+	void setPkValue(Object bean, Object value) {
+		PropertyWriter writer = pk == null ? null : writers.get(pk.name);
+		if (writer == null) {
+			throw new YzgRuntimeException(clazz.getName() + " 没有可写的主键属性");
+		}
+		try {
+			writer.write(bean, value);
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+	}
+
+	/**
+	 * 主键是否有值，null 或 0 视为没有
+	 */
+	boolean hasPkValue(Object[] values) {
+		return pk != null && isPkValue(values[pk.index]);
+	}
+
+	static boolean isPkValue(Object value) {
+		if (value == null) {
+			return false;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).longValue() != 0;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,114 @@
+package com.yzg365.common.dao;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 将结果集的一行封装成Vo
+ * 列和属性的对应关系根据 ResultSetMetaData 只解析一次，按 (Vo类型, 结果集的列) 缓存在 EntityMeta 中
+ * 列名优先按 @Column 注解对应到属性，否则列名即属性名，没有对应属性的列忽略
+ * 实现了 ITrackable 的Vo 封装完成后记录原始值
+ */
+final class EntityRowMapper implements RowMapper<Object> {
+
+	private final EntityMeta meta;
+	/** 参与封装的列下标，从1开始 */
+	private final int[] columns;
+	private final PropertyWriter[] writers;
+
+	private EntityRowMapper(EntityMeta meta, int[] columns, PropertyWriter[] writers) {
+		this.meta = meta;
+		this.columns = columns;
+		this.writers = writers;
+	}
+
+	/**
+	 * 获取结果集对应的 mapper，相同列的结果集共用一个
+	 *
+	 * @param meta
+	 * @param rsMetaData
+	 * @return
+	 * @throws SQLException
+	 */
+	static EntityRowMapper forResultSet(EntityMeta meta, ResultSetMetaData rsMetaData) throws SQLException {
+		int cnt = rsMetaData.getColumnCount();
+		String[] labels = new String[cnt];
+		StringBuilder layout = new StringBuilder();
+		for (int i = 0; i < cnt; i++) {
+			labels[i] = rsMetaData.getColumnLabel(i + 1);
+			layout.append(labels[i]).append('\u0001');
+		}
+		String key = layout.toString();
+		EntityRowMapper mapper = meta.getRowMapper(key);
+		if (mapper == null) {
+			mapper = compile(meta, labels);
+			meta.putRowMapper(key, mapper);
+		}
+		return mapper;
+	}
+
+	/**
+	 * 返回在第一行时才根据结果集解析列的 RowMapper，用于事先拿不到 ResultSetMetaData 的场合
+	 * 返回的对象记录了解析结果，只能用于同一个结果集
+	 *
+	 * @param meta
+	 * @return
+	 */
+	static RowMapper<Object> lazy(final EntityMeta meta) {
+		return new RowMapper<Object>() {
+			private EntityRowMapper mapper;
+
+			@Override
+			public Object mapRow(ResultSet rs, int rowNum) throws SQLException {
+				if (mapper == null) {
+					mapper = forResultSet(meta, rs.getMetaData());
+				}
+				return mapper.mapRow(rs, rowNum);
+			}
+		};
+	}
+
+	private static EntityRowMapper compile(EntityMeta meta, String[] labels) {
+		List<Integer> columnList = new ArrayList<Integer>();
+		List<PropertyWriter> writerList = new ArrayList<PropertyWriter>();
+		for (int i = 0; i < labels.length; i++) {
+			PropertyWriter writer = meta.getWriterByColumn(labels[i]);
+			if (writer == null) {
+				continue;
+			}
+			columnList.add(i + 1);
+			writerList.add(writer);
+		}
+		int[] columns = new int[columnList.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = columnList.get(i);
+		}
+		return new EntityRowMapper(meta, columns, writerList.toArray(new PropertyWriter[writerList.size()]));
+	}
+
+	@Override
+	public Object mapRow(ResultSet rs, int rowNum) throws SQLException {
+		Object bean = meta.newInstance();
+		for (int i = 0; i < columns.length; i++) {
+			Object value = writers[i].read(rs, columns[i]);
+			if (value == null) {
+				continue;
+			}
+			try {
+				writers[i].write(bean, value);
+			}
+			catch (Exception e) {
+				throw new YzgRuntimeException(e);
+			}
+		}
+		meta.track(bean);
+		return bean;
+	}
+}
@@ -0,0 +1,48 @@
+package com.yzg365.common.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按哈希分表，表名为 baseName_00 .. baseName_63
+ * 整数的分表键按值取模，其它类型按 hashCode 取模
+ */
+public class HashShardStrategy implements IShardStrategy {
+
+	private final int count;
+	private final List<String> tableNames;
+
+	/**
+	 * @param baseName
+	 *            分表名的前缀，如 order
+	 * @param count
+	 *            分表数
+	 */
+	public HashShardStrategy(String baseName, int count) {
+		if (count <= 0) {
+			throw new IllegalArgumentException("count: " + count);
+		}
+		this.count = count;
+		int width = Math.max(2, String.valueOf(count - 1).length());
+		List<String> names = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			names.add(String.format("%s_%0" + width + "d", baseName, i));
+		}
+		this.tableNames = Collections.unmodifiableList(names);
+	}
+
+	@Override
+	public String getTableName(Object shardKey) {
+		if (shardKey == null) {
+			throw new IllegalArgumentException("分表键为null");
+		}
+		long hash = shardKey instanceof Number ? ((Number) shardKey).longValue() : shardKey.hashCode();
+		return tableNames.get((int) (((hash % count) + count) % count));
+	}
+
+	@Override
+	public List<String> getTableNames() {
+		return tableNames;
+	}
+}
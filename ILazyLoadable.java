@@ -0,0 +1,20 @@
+package com.yzg365.common.dao;
+
+/**
+ * 实现此接口的Vo 支持 @Lazy 字段在第一次访问时加载
+ * 通过 JdbcBaseDao.get getAll 查询出来时，JdbcBaseDao 设置一个 LazyLoader
+ * 实现类用一个 transient 字段保存，在 @Lazy 字段的 getter 中调用，如
+ *
+ * public String getContent() {
+ * 		if (lazyLoader != null) {
+ * 			lazyLoader.load(this, "content");
+ * 		}
+ * 		return content;
+ * }
+ *
+ * JdbcBaseDao 读取 @Lazy 字段时直接读取字段，不经过 getter，不会触发加载
+ */
+public interface ILazyLoadable {
+
+	void setLazyLoader(LazyLoader lazyLoader);
+}
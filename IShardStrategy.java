@@ -0,0 +1,20 @@
+package com.yzg365.common.dao;
+
+import java.util.List;
+
+/**
+ * 分表规则：由分表键的值得到表名，以及列出所有的分表
+ * 按月分表等规则由使用方实现，按哈希分表见 HashShardStrategy
+ */
+public interface IShardStrategy {
+
+	/**
+	 * 分表键的值对应的表名
+	 */
+	String getTableName(Object shardKey);
+
+	/**
+	 * 所有的分表，用于没有分表键的查询
+	 */
+	List<String> getTableNames();
+}
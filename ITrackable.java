@@ -0,0 +1,16 @@
+package com.yzg365.common.dao;
+
+/**
+ * 实现此接口的Vo 支持变更跟踪
+ * 通过 get queryToList 查询出来或 add 之后，JdbcBaseDao 记录各字段的原始值
+ * update(T) 时只更新与原始值不同的字段，没有变化时不执行sql
+ *
+ * 实现类用一个 transient 字段保存即可，原始值的格式由 JdbcBaseDao 决定，不要修改
+ * 原始值为null 时按原来的方式更新所有非空字段
+ */
+public interface ITrackable {
+
+	Object[] getOriginalValues();
+
+	void setOriginalValues(Object[] originalValues);
+}
@@ -0,0 +1,68 @@
+package com.yzg365.common.dao;
+
+import java.util.List;
+
+/**
+ * IN (?,?,...) 的占位符
+ * 参数个数向上取整到2的幂，不足的部分重复最后一个值，使不同个数的参数共用少数几种sql，预编译语句缓存可以命中
+ * 如 37 个和 41 个参数都使用 64 个占位符
+ */
+final class InClause {
+
+	/** 缓存的占位符，下标为2的幂的指数 */
+	private static final String[] PLACEHOLDERS = new String[31];
+
+	private InClause() {
+	}
+
+	/**
+	 * 参数个数对应的占位符个数，不小于 n 的最小的2的幂，且不超过 max
+	 *
+	 * @param n
+	 * @param max
+	 *            每条语句最多的占位符个数
+	 * @return
+	 */
+	static int bucket(int n, int max) {
+		if (n <= 1) {
+			return 1;
+		}
+		int size = Integer.highestOneBit(n - 1) << 1;
+		return size > max ? max : size;
+	}
+
+	/**
+	 * "?,?,?" 共 size 个
+	 */
+	static String placeholders(int size) {
+		if (Integer.bitCount(size) != 1) {
+			return build(size);
+		}
+		int exp = Integer.numberOfTrailingZeros(size);
+		String s = PLACEHOLDERS[exp];
+		if (s == null) {
+			s = build(size);
+			PLACEHOLDERS[exp] = s;
+		}
+		return s;
+	}
+
+	private static String build(int size) {
+		StringBuilder builder = new StringBuilder(size * 2);
+		for (int i = 0; i < size; i++) {
+			builder.append(i == 0 ? "?" : ",?");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * 取 values 中 [from, to) 的值，个数不足 size 时重复最后一个值
+	 */
+	static Object[] params(List<?> values, int from, int to, int size) {
+		Object[] params = new Object[size];
+		for (int i = 0; i < size; i++) {
+			params[i] = values.get(Math.min(from + i, to - 1));
+		}
+		return params;
+	}
+}
@@ -1,35 +1,54 @@
 package com.yzg365.common.dao;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Resource;
 import javax.sql.DataSource;
 
-import org.apache.commons.beanutils.BeanUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.yzg365.common.annotation.Column;
-import com.yzg365.common.annotation.Extendable;
-import com.yzg365.common.annotation.ItemClass;
-import com.yzg365.common.annotation.Key;
 import com.yzg365.common.annotation.PrimaryKey;
 import com.yzg365.common.helper.DefaultTableNameProvider;
 import com.yzg365.common.helper.ITableName;
@@ -61,6 +80,381 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 
 	private ITableNameProvider iTableNameProvider = null;
 
+	/**
+	 * 游标查询默认的 fetchSize，默认 Integer.MIN_VALUE 使 MySQL 驱动逐行读取
+	 * 其它数据库或者 MySQL 开启了 useCursorFetch 时设置为正数
+	 */
+	private int streamFetchSize = Integer.MIN_VALUE;
+
+	/**
+	 * add addList addListBulk 是否通过 Statement.RETURN_GENERATED_KEYS 回填自增主键
+	 * 打开后插入和取主键在同一次请求中完成，不需要再查询 LAST_INSERT_ID
+	 */
+	private boolean fillGeneratedKeys = false;
+
+	/** get(T) 的缓存，按Vo 类型，通过 enableEntityCache 打开 */
+	private final ConcurrentMap<Class<?>, EntityCache> entityCaches = new ConcurrentHashMap<Class<?>, EntityCache>();
+
+	/** 查询结果缓存，通过 enableQueryCache 打开 */
+	private volatile QueryCache queryCache;
+
+	/** 相同查询的合并，通过 enableRequestCoalescing 打开 */
+	private volatile SingleFlight singleFlight;
+
+	/** 读写分离，通过 setReplicas 打开 */
+	private volatile ReplicaRouter replicaRouter;
+
+	/** 分表的Vo 类型，通过 registerShards 注册 */
+	private final ConcurrentMap<Class<?>, ShardedTable> shardedTables = new ConcurrentHashMap<Class<?>, ShardedTable>();
+
+	/** addAsync updateAsync 的异步批量写入，通过 enableWriteBehind 打开 */
+	private volatile WriteBehind writeBehind;
+
+	/** addListBulk 每条 insert 语句最多插入的行数 */
+	private int insertBatchRows = 500;
+
+	/** addListBulk 每条 insert 语句最多的参数个数，MySQL 的预编译语句最多 65535 个参数 */
+	private int maxInsertParams = 65535;
+
+	/** deleteAll deleteAllByKeys 每条语句 IN (...) 中最多的主键个数，取2的幂 */
+	private int maxInListSize = 1024;
+
+	/**
+	 * 一行封装成Map，key 为列的别名
+	 * 列名在第一行时读取一次，同一次查询的所有行共用一个 CompactRowMap.KeyIndex，每行只保存值数组
+	 * 有状态，每次查询创建一个
+	 */
+	private static RowMapper<Map<String, Object>> newMapRowMapper() {
+		return new RowMapper<Map<String, Object>>() {
+			private CompactRowMap.KeyIndex index;
+			/** 各列在 index 中的下标，列名重复时后面的列覆盖前面的 */
+			private int[] positions;
+
+			@Override
+			public Map<String, Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
+				if (index == null) {
+					ResultSetMetaData rsMetaData = rs.getMetaData();
+					String[] labels = new String[rsMetaData.getColumnCount()];
+					for (int i = 0; i < labels.length; i++) {
+						labels[i] = rsMetaData.getColumnLabel(i + 1);
+					}
+					index = new CompactRowMap.KeyIndex(labels);
+					positions = new int[labels.length];
+					for (int i = 0; i < labels.length; i++) {
+						positions[i] = index.indexOf(labels[i]);
+					}
+				}
+				CompactRowMap map = new CompactRowMap(index, index.size());
+				for (int i = 0; i < positions.length; i++) {
+					map.set(positions[i], rs.getObject(i + 1));
+				}
+				return map;
+			}
+		};
+	}
+
+	/**
+	 * 一行封装成数组
+	 */
+	private static final RowMapper<Object[]> ARRAY_ROW_MAPPER = new RowMapper<Object[]>() {
+		@Override
+		public Object[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+			int cnt = rs.getMetaData().getColumnCount();
+			Object[] array = new Object[cnt];
+			for (int i = 0; i < cnt; i++) {
+				array[i] = rs.getObject(i + 1);
+			}
+			return array;
+		}
+	};
+
+	/**
+	 * 为Vo 类型打开 get(T) 的缓存，适用于很少修改的基础数据
+	 * 通过本dao 对该类型的 add addList update(T) delete 会使对应表的缓存失效，直接执行的sql 不会
+	 * 
+	 * @param clazz
+	 * @param maxSize
+	 *            最多缓存的条目数，按最近最少使用淘汰
+	 * @param ttlMillis
+	 *            条目的有效时间，小于等于0 表示不过期
+	 * @return 缓存对象，可以用于获取命中率等统计
+	 */
+	public EntityCache enableEntityCache(Class<?> clazz, int maxSize, long ttlMillis) {
+		EntityCache cache = new EntityCache(EntityMeta.of(clazz), maxSize, ttlMillis);
+		entityCaches.put(clazz, cache);
+		return cache;
+	}
+
+	public void disableEntityCache(Class<?> clazz) {
+		entityCaches.remove(clazz);
+	}
+
+	/**
+	 * Vo 类型的缓存，没有打开时返回null
+	 */
+	public EntityCache getEntityCache(Class<?> clazz) {
+		return entityCaches.get(clazz);
+	}
+
+	/**
+	 * Vo 类型在表上有写操作，使缓存失效
+	 * 在事务中时事务结束后再失效一次，避免事务提交前其它线程把旧数据放入缓存
+	 */
+	void invalidateEntityCache(Class<?> clazz, final String tableName) {
+		if (entityCaches.isEmpty()) {
+			return;
+		}
+		final EntityCache cache = entityCaches.get(clazz);
+		if (cache == null) {
+			return;
+		}
+		cache.invalidate(tableName);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					cache.invalidate(tableName);
+				}
+			});
+		}
+	}
+
+	/**
+	 * 打开查询结果缓存，对 queryToList queryToMap getSingleValue getSingleLong 生效，适用于相同查询频繁执行的报表等
+	 * 通过本dao 执行的增删改会使读取了对应表的缓存失效，其它途径的修改只能等待 ttl 过期
+	 * 缓存中保存不可修改的副本，命中和没有命中时 queryToList queryToMap 都返回可修改的列表或Map，调用方的修改不影响缓存
+	 * 
+	 * @param maxSize
+	 *            最多缓存的条目数，按最近最少使用淘汰
+	 * @param ttlMillis
+	 *            条目的有效时间，小于等于0 表示不过期
+	 * @return 缓存对象，可以用于获取命中率等统计
+	 */
+	public QueryCache enableQueryCache(int maxSize, long ttlMillis) {
+		queryCache = new QueryCache(maxSize, ttlMillis);
+		return queryCache;
+	}
+
+	public void disableQueryCache() {
+		queryCache = null;
+	}
+
+	/**
+	 * 查询结果缓存，没有打开时返回null
+	 */
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	/**
+	 * 记录当前线程的写入时间，之后 stickyMillis 内的查询在主库执行
+	 * 写操作在其它线程执行时(并行的 addListBulk，异步写入)在调用的线程上再记录一次
+	 */
+	private void markWrite() {
+		ReplicaRouter router = replicaRouter;
+		if (router != null) {
+			router.markWrite();
+		}
+	}
+
+	/**
+	 * 执行了增删改语句：记录读写分离的写入时间，使读取了相关表的查询缓存失效
+	 * 在事务中时事务结束后再失效一次，避免事务提交前其它线程把旧数据放入缓存
+	 */
+	private void afterWrite(String sql) {
+		markWrite();
+		final QueryCache cache = queryCache;
+		if (cache == null) {
+			return;
+		}
+		final String[] tables = SqlTables.written(sql);
+		invalidateQueryCache(cache, tables);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					invalidateQueryCache(cache, tables);
+				}
+			});
+		}
+	}
+
+	private static void invalidateQueryCache(QueryCache cache, String[] tables) {
+		if (tables.length == 0) {
+			cache.invalidateAll();
+		}
+		for (String table : tables) {
+			cache.invalidate(table);
+		}
+	}
+
+	/**
+	 * 打开相同查询的合并，对 get(T) getSingleValue queryToList 生效
+	 * 同一时刻 sql 和参数都相同的查询只访问一次数据库，其余调用等待并共用结果，返回的 List Vo 是各自的副本
+	 * 事务中的查询不合并
+	 * 
+	 * @return 合并对象，可以用于获取合并次数等统计
+	 */
+	public SingleFlight enableRequestCoalescing() {
+		singleFlight = new SingleFlight();
+		return singleFlight;
+	}
+
+	public void disableRequestCoalescing() {
+		singleFlight = null;
+	}
+
+	/**
+	 * 相同查询的合并，没有打开时返回null
+	 */
+	public SingleFlight getRequestCoalescing() {
+		return singleFlight;
+	}
+
+	/**
+	 * 查询缓存的 Lookup，没有打开缓存或当前线程的查询在主库执行时返回null
+	 * 从库可能还没有同步最近的写操作时，返回的 Lookup 可以命中但不放入缓存
+	 */
+	private QueryCache.Lookup lookupCache(QueryCache cache, Object kind, String sql, Object[] params) {
+		if (cache == null || isPinned()) {
+			return null;
+		}
+		QueryCache.Lookup lookup = cache.lookup(kind, sql, params);
+		return mayFillCache() ? lookup : lookup.readOnly();
+	}
+
+	/**
+	 * 当前线程的查询是否因 onPrimary 或写后读在主库执行
+	 */
+	private boolean isPinned() {
+		ReplicaRouter router = replicaRouter;
+		return router != null && router.isPinned();
+	}
+
+	/**
+	 * 接下来的查询结果能否放入缓存，可能在还没有同步最近写操作的从库上执行时不能
+	 */
+	private boolean mayFillCache() {
+		ReplicaRouter router = replicaRouter;
+		return router == null || TransactionSynchronizationManager.isActualTransactionActive() || !router.isRecentWrite();
+	}
+
+	/**
+	 * 执行查询，打开了合并且不在事务中时与同时进行的相同查询合并
+	 */
+	private <V> V coalesce(Object kind, String sql, Object[] params, Callable<V> loader, SingleFlight.Copier<V> copier) {
+		SingleFlight flight = singleFlight;
+		// 在主库执行的查询不与可能在从库执行的查询合并
+		if (flight != null && !TransactionSynchronizationManager.isActualTransactionActive() && !isPinned()) {
+			return flight.execute(kind, sql, params, loader, copier);
+		}
+		try {
+			return loader.call();
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+	}
+
+	/**
+	 * 打开异步批量写入，addAsync updateAsync 提交的写入由后台线程按sql 分组后批量执行，见 WriteBehind
+	 * 已经打开时先关闭原来的，执行完已提交的写入
+	 * 
+	 * @param batchSize
+	 *            待执行的写入达到该数量时立即执行，也是一次 batchUpdate 的最大行数
+	 * @param flushIntervalMillis
+	 *            最长的等待时间
+	 * @param maxPending
+	 *            最多待执行的写入数，超过时提交的线程等待
+	 * @return
+	 */
+	public synchronized WriteBehind enableWriteBehind(int batchSize, long flushIntervalMillis, int maxPending) {
+		disableWriteBehind();
+		writeBehind = new WriteBehind(this, batchSize, flushIntervalMillis, maxPending);
+		return writeBehind;
+	}
+
+	/**
+	 * 关闭异步批量写入，执行完已提交的写入后返回
+	 */
+	public synchronized void disableWriteBehind() {
+		WriteBehind old = writeBehind;
+		writeBehind = null;
+		if (old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * 异步批量写入，没有打开时返回null
+	 */
+	public WriteBehind getWriteBehind() {
+		return writeBehind;
+	}
+
+	private static final SingleFlight.Copier<List<Object>> LIST_COPIER = new SingleFlight.Copier<List<Object>>() {
+		@Override
+		public List<Object> copy(List<Object> value) {
+			return new ArrayList<Object>(value);
+		}
+	};
+
+	private static SingleFlight.Copier<List<Object>> beanListCopier(final EntityMeta meta) {
+		return new SingleFlight.Copier<List<Object>>() {
+			@Override
+			public List<Object> copy(List<Object> value) {
+				List<Object> copy = new ArrayList<Object>(value.size());
+				for (Object bean : value) {
+					copy.add(meta.copy(bean));
+				}
+				return copy;
+			}
+		};
+	}
+
+	public boolean isFillGeneratedKeys() {
+		return fillGeneratedKeys;
+	}
+
+	public void setFillGeneratedKeys(boolean fillGeneratedKeys) {
+		this.fillGeneratedKeys = fillGeneratedKeys;
+	}
+
+	public int getInsertBatchRows() {
+		return insertBatchRows;
+	}
+
+	public void setInsertBatchRows(int insertBatchRows) {
+		this.insertBatchRows = insertBatchRows;
+	}
+
+	public int getMaxInsertParams() {
+		return maxInsertParams;
+	}
+
+	public void setMaxInsertParams(int maxInsertParams) {
+		this.maxInsertParams = maxInsertParams;
+	}
+
+	public int getMaxInListSize() {
+		return maxInListSize;
+	}
+
+	public void setMaxInListSize(int maxInListSize) {
+		this.maxInListSize = maxInListSize;
+	}
+
+	public int getStreamFetchSize() {
+		return streamFetchSize;
+	}
+
+	public void setStreamFetchSize(int streamFetchSize) {
+		this.streamFetchSize = streamFetchSize;
+	}
+
 	protected ITableNameProvider getTableNameProvider() {
 		if (iTableNameProvider == null) {
 			iTableNameProvider = new DefaultTableNameProvider();
@@ -105,17 +499,6 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 		return sql;
 	}
 
-	private String getPkColumnName(Class clazz) throws Exception {
-		String pkColumnName;
-		Field field = clazz.getDeclaredField("seqId");
-		Column column = field.getAnnotation(Column.class);
-		pkColumnName = field.getName();
-		if (column != null) {
-			pkColumnName = column.columnName();
-		}
-		return pkColumnName;
-	}
-
 	/**
 	 * 构造查询条件，如果val为null返回空字符串
 	 * 
@@ -144,28 +527,12 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 			return " AND INSTR("+columnName+", ?) ";
 		}
 		//字段 在集合中，改为 ? 代替 防止sql注入
+		//占位符个数取2的幂，不足的部分重复最后一个值，见 Criteria
 		else if(cond.equalsIgnoreCase("in")){
-			StringBuilder inBuilder = new StringBuilder(" AND "+columnName+" IN(");
-			String instr;
-			List params = new ArrayList<Object>();
-			if(val instanceof String){
-				String paramStr = (String) val;
-				String[] paramArr = paramStr.split(",");
-				for(int i = 0; i < paramArr.length; i++){
-					params.add(paramArr[i]);
-				}
-			}else if(val instanceof List){
-				params = (List<Object>) val;
-			}
-			
-			for(Object obj : params){
-				inBuilder.append("?,");
-			}
-			
-			paramList.addAll(params);
-			//去除最后一个逗号
-			instr = inBuilder.substring(0, inBuilder.length()-1);
-			return instr+") ";
+			List<?> params = Criteria.toList(val);
+			int max = Math.max(1, maxInListSize);
+			Criteria.addInParams(params, max, paramList);
+			return Criteria.inSql(columnName, Criteria.inSize(params.size(), max), max);
 		}
 		else {
 			paramList.add(val);
@@ -174,19 +541,43 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 		return " AND " + columnName + " " + cond + " ? ";
 	}
 
+	/**
+	 * 创建查询条件，代替多次调用 sqlCondBuilder，生成的sql 按形状缓存，见 Criteria
+	 * IN 中一组最多的占位符个数为 maxInListSize
+	 */
+	public Criteria criteria() {
+		return new Criteria(maxInListSize);
+	}
+
 	/**
 	 * 根据某一sql语句返回记录列表，只返回第一列
 	 */
-	public <T> List<T> queryToList(String sql, Object[] params) {
+	public <T> List<T> queryToList(String sql, final Object[] params) {
 		sql = sql.trim();
-		final List<T> datas = new ArrayList<T>();
-		getJdbcTemplate().query(sql, params, new RowCallbackHandler() {
+		QueryCache cache = queryCache;
+		QueryCache.Lookup lookup = lookupCache(cache, "list", sql, params);
+		if (lookup != null && lookup.isHit()) {
+			// 缓存的结果是共用的，返回副本
+			return new ArrayList<T>((List<T>) lookup.value);
+		}
+		final String querySql = sql;
+		List<T> datas = (List<T>) coalesce("list", sql, params, new Callable<List<Object>>() {
 			@Override
-			public void processRow(ResultSet rs) throws SQLException {
-				datas.add((T) rs.getObject(1));
+			public List<Object> call() {
+				final List<Object> datas = new ArrayList<Object>();
+				readTemplate().query(querySql, params, new RowCallbackHandler() {
+					@Override
+					public void processRow(ResultSet rs) throws SQLException {
+						datas.add(rs.getObject(1));
+					}
+				});
+				logger.debug("[sql] " + getLogSql(querySql, params) + "[" + datas.size() + "]");
+				return datas;
 			}
-		});
-		logger.debug("[sql] " + getLogSql(sql, params) + "[" + datas.size() + "]");
+		}, LIST_COPIER);
+		if (lookup != null) {
+			cache.put(lookup, Collections.unmodifiableList(Arrays.asList(datas.toArray())));
+		}
 		return datas;
 	}
 
@@ -196,11 +587,15 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	public List<Object[]> queryToListArray(String sql, Object[] params) {
 		sql = sql.trim();
 		final List<Object[]> list = new ArrayList<Object[]>();
-		getJdbcTemplate().query(sql, params, new RowCallbackHandler() {
+		readTemplate().query(sql, params, new RowCallbackHandler() {
+			// 列数在第一行时读取一次
+			private int cnt = -1;
+
 			@Override
 			public void processRow(ResultSet rs) throws SQLException {
-				ResultSetMetaData rsMetaData = rs.getMetaData();
-				int cnt = rsMetaData.getColumnCount();
+				if (cnt < 0) {
+					cnt = rs.getMetaData().getColumnCount();
+				}
 				Object[] array = new Object[cnt];
 
 				for (int i = 0; i < cnt; i++) {
@@ -213,27 +608,160 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 		return list;
 	}
 
+	/**
+	 * 按列返回查询结果，数值列为基本类型数组，字符串列按字典编码，不为每个值创建对象，见 ColumnarResult
+	 * 用于读取大量数值的统计分析
+	 * 
+	 * @param sql
+	 * @param params
+	 * @return
+	 */
+	public ColumnarResult queryToColumns(String sql, Object[] params) {
+		sql = sql.trim();
+		ColumnarResult result = readTemplate().query(sql, params, new ResultSetExtractor<ColumnarResult>() {
+			@Override
+			public ColumnarResult extractData(ResultSet rs) throws SQLException {
+				return ColumnarResult.read(rs);
+			}
+		});
+		logger.debug("[sql] " + getLogSql(sql, params) + "[" + result.getRowCount() + "]");
+		return result;
+	}
+
 	/**
 	 * 根据某一sql语句返回记录列表
+	 * 返回的Map 共用同一份列名索引，每个Map 只保存一个值数组，按列的顺序遍历
 	 */
 	public List<Map<String, Object>> queryToListMap(String sql, Object[] params) {
 		final List<Map<String, Object>> listMap = new ArrayList<Map<String, Object>>();
-		getJdbcTemplate().query(sql, params, new RowCallbackHandler() {
+		final RowMapper<Map<String, Object>> mapper = newMapRowMapper();
+		readTemplate().query(sql, params, new RowCallbackHandler() {
 			@Override
 			public void processRow(ResultSet rs) throws SQLException {
-				ResultSetMetaData rsMetaData = rs.getMetaData();
-				Map<String, Object> map = new HashMap<String, Object>();
-				int cnt = rsMetaData.getColumnCount();
-				for (int i = 1; i <= cnt; i++) {
-					map.put(rsMetaData.getColumnLabel(i), rs.getObject(i));
-				}
-				listMap.add(map);
+				listMap.add(mapper.mapRow(rs, listMap.size()));
 			}
 		});
 		logger.debug("[sql] " + getLogSql(sql, params) + "[" + listMap.size() + "]");
 		return listMap;
 	}
 
+	/**
+	 * 以游标的方式查询，遍历时才逐行封装，结果集再大内存也不会增长
+	 * 返回的游标持有数据库连接，遍历结束时自动释放，提前结束时必须调用 close
+	 * eg.
+	 * ResultCursor<Map<String, Object>> cursor = cursorToListMap(sql, params);
+	 * try {
+	 * 		while (cursor.hasNext()) {
+	 * 			Map<String, Object> row = cursor.next();
+	 * 			......
+	 * 		}
+	 * }
+	 * finally {
+	 * 		cursor.close();
+	 * }
+	 *
+	 * @param sql
+	 * @param params
+	 * @param fetchSize
+	 *            每次从数据库读取的行数，0 表示使用驱动的默认值
+	 * @param rowMapper
+	 * @return
+	 */
+	public <T> ResultCursor<T> cursor(String sql, Object[] params, int fetchSize, RowMapper<T> rowMapper) {
+		sql = sql.trim();
+		ResultCursor<T> cursor = ResultCursor.open(readDataSource(), getExceptionTranslator(), sql, params, fetchSize,
+				rowMapper);
+		if (logger.isDebugEnabled()) {
+			logger.debug("[sql] " + getLogSql(sql, params == null ? new Object[0] : params) + "[cursor]");
+		}
+		return cursor;
+	}
+
+	/**
+	 * 与 queryToListMap 相同的封装，以游标的方式返回
+	 */
+	public ResultCursor<Map<String, Object>> cursorToListMap(String sql, Object[] params) {
+		return cursor(sql, params, streamFetchSize, newMapRowMapper());
+	}
+
+	/**
+	 * 与 queryToListArray 相同的封装，以游标的方式返回
+	 */
+	public ResultCursor<Object[]> cursorToListArray(String sql, Object[] params) {
+		return cursor(sql, params, streamFetchSize, ARRAY_ROW_MAPPER);
+	}
+
+	/**
+	 * 与 queryToList(String sql, Object[] params, Class clazz) 相同的封装，以游标的方式返回
+	 */
+	public <T> ResultCursor<T> cursorToList(String sql, Object[] params, Class clazz) {
+		return (ResultCursor<T>) cursor(sql, params, streamFetchSize, EntityRowMapper.lazy(EntityMeta.of(clazz)));
+	}
+
+	/**
+	 * 逐行处理查询结果，处理完或 processor 返回false 时释放连接
+	 *
+	 * @param sql
+	 * @param params
+	 * @param fetchSize
+	 * @param rowMapper
+	 * @param processor
+	 * @return 处理的行数
+	 */
+	public <T> int forEach(String sql, Object[] params, int fetchSize, RowMapper<T> rowMapper,
+			RowProcessor<? super T> processor) {
+		ResultCursor<T> cursor = cursor(sql, params, fetchSize, rowMapper);
+		try {
+			while (cursor.hasNext()) {
+				if (!processor.process(cursor.next())) {
+					break;
+				}
+			}
+			return cursor.getRowCount();
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	public int forEachMap(String sql, Object[] params, RowProcessor<Map<String, Object>> processor) {
+		return forEach(sql, params, streamFetchSize, newMapRowMapper(), processor);
+	}
+
+	public int forEachArray(String sql, Object[] params, RowProcessor<Object[]> processor) {
+		return forEach(sql, params, streamFetchSize, ARRAY_ROW_MAPPER, processor);
+	}
+
+	public <T> int forEach(String sql, Object[] params, Class clazz, RowProcessor<T> processor) {
+		return forEach(sql, params, streamFetchSize, EntityRowMapper.lazy(EntityMeta.of(clazz)),
+				(RowProcessor<Object>) processor);
+	}
+
+	/**
+	 * 按键分页遍历，每页一次 queryToList，代替 LIMIT offset, n，见 KeysetPager
+	 * 
+	 * @param sql
+	 *            SELECT ... FROM ... [WHERE ...]，不包含 ORDER BY 和 LIMIT
+	 * @param params
+	 * @param clazz
+	 * @param pageSize
+	 *            每页的行数
+	 * @param keyColumns
+	 *            排序的键的列，组合唯一，如 "id" 或 "createTime", "id"
+	 * @return
+	 */
+	public <T> KeysetPager<T> keysetPager(String sql, Object[] params, Class clazz, int pageSize, String... keyColumns) {
+		return new KeysetPager<T>(this, sql, params, clazz, pageSize, keyColumns);
+	}
+
+	/**
+	 * 同 keysetPager，每行封装成Map
+	 */
+	public KeysetPager<Map<String, Object>> keysetPagerMap(String sql, Object[] params, int pageSize,
+			String... keyColumns) {
+		return new KeysetPager<Map<String, Object>>(this, sql, params, null, pageSize, keyColumns);
+	}
+
 	/**
 	 * 查询返回单个Vo 调用 public <T> List<T> queryToList(String sql, Object[] params,
 	 * final Class clazz) 实现
@@ -252,53 +780,52 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	 * 根据某一sql语句返回记录列表,并封装成Vo 如果数据库的列名和Vo的属性名不一致 将其重命名为 属性名即可
 	 * 可以查询多张表，并将其封装到一个对象中
 	 */
-	public <T> List<T> queryToList(String sql, Object[] params, final Class clazz) {
-		final List<T> list = new ArrayList<T>();
-		getJdbcTemplate().query(sql, params, new RowCallbackHandler() {
+	public <T> List<T> queryToList(final String sql, final Object[] params, final Class clazz) {
+		final EntityMeta meta = EntityMeta.of(clazz);
+		QueryCache cache = queryCache;
+		QueryCache.Lookup lookup = lookupCache(cache, clazz, sql, params);
+		if (lookup != null && lookup.isHit()) {
+			// Vo 是可修改的，返回副本
+			List<Object> cached = (List<Object>) lookup.value;
+			List<T> copy = new ArrayList<T>(cached.size());
+			for (Object bean : cached) {
+				copy.add((T) meta.copy(bean));
+			}
+			return copy;
+		}
+		List<T> list = (List<T>) coalesce(clazz, sql, params, new Callable<List<Object>>() {
 			@Override
-			public void processRow(ResultSet rs) throws SQLException {
-				Map<String, String> columnMap = this.getColumnMap(clazz);
-				T t;
-				try {
-					t = (T) clazz.newInstance();
-					ResultSetMetaData rsMetaData = rs.getMetaData();
-					int cnt = rsMetaData.getColumnCount();
-					Field field;
-					String fieldName;
-					Object fieldObject;
-					for (int i = 1; i <= cnt; i++) {
-						fieldName = rsMetaData.getColumnLabel(i);
-						fieldObject = rs.getObject(i);
-						// field = clazz.getDeclaredField(fieldName);
-						if (fieldObject == null) {
-							continue;
+			public List<Object> call() {
+				final List<Object> list = new ArrayList<Object>();
+				readTemplate().query(sql, params, new RowCallbackHandler() {
+					// 列和属性的对应关系在第一行时解析一次
+					private EntityRowMapper mapper;
+					private int rowNum = 0;
+
+					@Override
+					public void processRow(ResultSet rs) throws SQLException {
+						if (mapper == null) {
+							mapper = EntityRowMapper.forResultSet(meta, rs.getMetaData());
 						}
-						// 如果是column,则替换成fieldName
-						if (columnMap.containsKey(fieldName)) {
-							fieldName = columnMap.get(fieldName);
+						try {
+							list.add(mapper.mapRow(rs, rowNum++));
+						}
+						catch (RuntimeException e) {
+							e.printStackTrace();
 						}
-						BeanUtils.setProperty(t, fieldName, fieldObject);
 					}
-					list.add(t);
-				}
-				catch (Exception e) {
-					e.printStackTrace();
-				}
+				});
+				logger.debug("[sql] " + getLogSql(sql, params) + "[" + list.size() + "]");
+				return list;
 			}
-
-			private Map<String, String> getColumnMap(final Class clazz) {
-				Field[] fields = clazz.getDeclaredFields();
-				Map<String, String> map = new HashMap<String, String>();
-				for (Field f : fields) {
-					Column column = f.getAnnotation(Column.class);
-					if (column != null) {
-						map.put(column.columnName(), f.getName());
-					}
-				}
-				return map;
+		}, beanListCopier(meta));
+		if (lookup != null) {
+			Object[] copy = new Object[list.size()];
+			for (int i = 0; i < copy.length; i++) {
+				copy[i] = meta.copy(list.get(i));
 			}
-		});
-		logger.debug("[sql] " + getLogSql(sql, params) + "[" + list.size() + "]");
+			cache.put(lookup, Collections.unmodifiableList(Arrays.asList(copy)));
+		}
 		return list == null ? Collections.<T> emptyList() : list;
 	}
 
@@ -349,75 +876,119 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	 *            替代sql中的?
 	 * @param clazz
 	 *            Vo 类型
+	 * 支持多层嵌套，如 `items.details.num`，每一层的List 属性上都需要 @ItemClass 注解
+	 * 列名只在第一行解析一次，直接从结果集封装，见 AggregatePlan
+	 * 
 	 * @param agreKey
-	 *            Vo 的唯一标识，目前只对应表中的一列
+	 *            Vo 的唯一标识，对应表中的一列，多列时用逗号隔开，如 "staffId,balanceMonth"
 	 * @return
 	 */
 	public <T> List<T> queryToList(String sql, Object[] params, Class clazz, String agreKey) {
-		List<Map<String, Object>> list = queryToListMap(sql, params);
-		List<T> datas = new ArrayList<T>();
-		// String lastAgreKey = null;
-		Object lastAgreKey = null;
-		T t = null;
-		List items = null;
-		ItemClass itemClass = null;
-		Class itemClazz = null;
-		Object bean;
-		Object oldPropVal;
-		try {
-			for (Map<String, Object> m : list) {
-				// 新的Vo对象t
-				Object curAgreKey = m.get(agreKey);
-				if (lastAgreKey == null || !curAgreKey.equals(lastAgreKey)) {
-					t = (T) clazz.newInstance();
-					datas.add(t);
-					lastAgreKey = curAgreKey;
-					items = null;
-				}
+		GroupingHandler handler = aggregateHandler(EntityMeta.of(clazz), agreKey);
+		readTemplate().query(sql, params, handler);
+		List<T> datas = (List<T>) handler.finish();
+		logger.debug("[sql] " + getLogSql(sql, params) + "[" + handler.rowCount + "]");
+		return datas;
+	}
 
-				// 对一个Vo对象赋值
-				Object item = null;
-				for (Entry<String, Object> entry : m.entrySet()) {
-					String propName = entry.getKey();
-					Object propVal = entry.getValue();
-					String[] propties = propName.split("\\.");
-					Field field = clazz.getDeclaredField(propties[0]);
-					if (propties.length > 1) {
-						if (items == null) {
-							items = new ArrayList();
-							BeanUtils.setProperty(t, propties[0], items);
-						}
-						if (itemClazz == null) {
-							itemClass = field.getAnnotation(ItemClass.class);
-							itemClazz = itemClass.clazz();
-						}
-						if (item == null) {
-							item = itemClazz.newInstance();
-							items.add(item);
-						}
-						field = itemClazz.getDeclaredField(propties[1]);
-						bean = item;
-						propName = propties[1];
-					}
-					else {
-						bean = t;
-						propName = propties[0];
-					}
+	/**
+	 * 与 queryToList(String sql, Object[] params, Class clazz, String agreKey) 相同的封装，以游标的方式遍历
+	 * 每个Vo 在agreKey 变化时(即它的所有行都读取完后)交给 processor，内存中只保留当前的Vo
+	 *
+	 * @param sql
+	 * @param params
+	 * @param clazz
+	 * @param agreKey
+	 * @param processor
+	 * @return 处理的Vo 数
+	 */
+	public <T> int forEach(String sql, Object[] params, Class clazz, String agreKey, RowProcessor<T> processor) {
+		return forEachGroup(sql, params, aggregateHandler(EntityMeta.of(clazz), agreKey), processor);
+	}
+
+	private static GroupingHandler aggregateHandler(final EntityMeta meta, final String agreKey) {
+		return new GroupingHandler() {
+			@Override
+			protected RowGrouper newGrouper(ResultSetMetaData rsMetaData) throws SQLException {
+				return AggregatePlan.forResultSet(meta, rsMetaData, agreKey).newAggregator();
+			}
+		};
+	}
 
-					oldPropVal = BeanUtils.getProperty(bean, propName);
-					// 如果已经赋值，或者是数字且不是初始值0，那么跳过
-					if (oldPropVal != null && !oldPropVal.toString().equals("0")) {
-						continue;
+	/**
+	 * 以游标的方式遍历，每个封装完成的对象交给 processor
+	 */
+	private <T> int forEachGroup(String sql, Object[] params, final GroupingHandler handler, RowProcessor<T> processor) {
+		ResultCursor<Object> cursor = cursor(sql, params, streamFetchSize, new RowMapper<Object>() {
+			@Override
+			public Object mapRow(ResultSet rs, int rowNum) throws SQLException {
+				return handler.group(rs);
+			}
+		});
+		int count = 0;
+		try {
+			while (cursor.hasNext()) {
+				Object done = cursor.next();
+				if (done != null) {
+					count++;
+					if (!processor.process((T) done)) {
+						return count;
 					}
-					BeanUtils.setProperty(bean, propName, propVal);
 				}
 			}
+			Object last = handler.last();
+			if (last != null) {
+				count++;
+				processor.process((T) last);
+			}
+			return count;
 		}
-		catch (Exception ex) {
-			throw new YzgRuntimeException(ex);
+		finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * 将相邻的多行封装成一个对象的回调，列名在第一行时解析一次
+	 * RowCallbackHandler 没有结束通知，最后一个对象由 finish 取出
+	 */
+	private abstract static class GroupingHandler implements RowCallbackHandler {
+		private final List<Object> datas = new ArrayList<Object>();
+		private RowGrouper grouper;
+		private int rowCount = 0;
+
+		protected abstract RowGrouper newGrouper(ResultSetMetaData rsMetaData) throws SQLException;
+
+		@Override
+		public void processRow(ResultSet rs) throws SQLException {
+			Object done = group(rs);
+			if (done != null) {
+				datas.add(done);
+			}
+		}
+
+		/**
+		 * 处理一行，返回已经封装完成的对象
+		 */
+		Object group(ResultSet rs) throws SQLException {
+			if (grouper == null) {
+				grouper = newGrouper(rs.getMetaData());
+			}
+			rowCount++;
+			return grouper.row(rs);
+		}
+
+		Object last() {
+			return grouper == null ? null : grouper.finish();
+		}
+
+		List<Object> finish() {
+			Object last = last();
+			if (last != null) {
+				datas.add(last);
+			}
+			return datas;
 		}
-		logger.debug("[sql] " + getLogSql(sql, params) + "[" + list.size() + "]");
-		return datas;
 	}
 
 	public <T> T queryToFlat(String sql, Object[] params, Class clazz, String agreKey) {
@@ -452,103 +1023,61 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	 * @return
 	 */
 	public <T> List<T> queryToFlatList(String sql, Object[] params, Class clazz, String agreKey) {
-		List<Map<String, Object>> list = queryToListMap(sql, params);
-		List<T> datas = new ArrayList<T>();
-		String lastAgreKey = null;
-		T t = null;
-		String propName = null;
-		Object propVal = null;
-		Object oldPropVal = null;
-		try {
-			for (Map<String, Object> m : list) {
-				// 新的Vo对象t
-				String curAgreKey = (String) m.get(agreKey);
-				if (lastAgreKey == null || !curAgreKey.equals(lastAgreKey)) {
-					t = (T) clazz.newInstance();
-					datas.add(t);
-					lastAgreKey = curAgreKey;
-				}
-				for (Entry<String, Object> entry : m.entrySet()) {
-					String columLable = entry.getKey();
-					Object columVal = entry.getValue();
-					if ("propVal".equals(columLable)) {
-						continue;
-					}
-					else if ("propName".equals(columLable)) {
-						propName = (String) m.get(columLable);
-						propVal = m.get("propVal");
-					}
-					else {
-						propName = columLable;
-						propVal = columVal;
-					}
-					oldPropVal = BeanUtils.getProperty(t, propName);
-					if (oldPropVal == null) {
-						BeanUtils.setProperty(t, propName, propVal);
-					}
-				}
+		GroupingHandler handler = pivotHandler(EntityMeta.of(clazz), agreKey);
+		readTemplate().query(sql, params, handler);
+		List<T> datas = (List<T>) handler.finish();
+		logger.debug("[sql] " + getLogSql(sql, params) + "[" + handler.rowCount + "]");
+		return datas;
+	}
+
+	/**
+	 * 与 queryToFlatList 相同的封装，以游标的方式遍历，用于源数据行数很多的情况
+	 * 每个Vo 的所有行都读取完后交给 processor
+	 *
+	 * @return 处理的Vo 数
+	 */
+	public <T> int forEachFlat(String sql, Object[] params, Class clazz, String agreKey, RowProcessor<T> processor) {
+		return forEachGroup(sql, params, pivotHandler(EntityMeta.of(clazz), agreKey), processor);
+	}
 
+	/**
+	 * @param meta
+	 *            封装成Map 时为null
+	 */
+	private static GroupingHandler pivotHandler(final EntityMeta meta, final String agreKey) {
+		return new GroupingHandler() {
+			@Override
+			protected RowGrouper newGrouper(ResultSetMetaData rsMetaData) throws SQLException {
+				return PivotPlan.forResultSet(meta, rsMetaData, agreKey).newPivoter();
 			}
-		}
-		catch (Exception ex) {
-			throw new YzgRuntimeException(ex);
-		}
-		logger.debug("[sql] " + getLogSql(sql, params) + "[" + list.size() + "]");
-		return datas;
+		};
 	}
 
 	/**
 	 * 跟public <T> List<T> queryToFlatList(String sql, Object[] params, Class clazz, String agreKey)
 	 * 相同的作用，只是结果保存在map中
+	 * 返回的Map 共用同一份列名索引，每个Map 只保存一个值数组
 	 * @param sql
 	 * @param params
 	 * @param agreKey
 	 * @return
 	 */
 	public List<Map<String, Object>> queryToFlatMapList(String sql, Object[] params,String agreKey) {
-		List<Map<String, Object>> list = queryToListMap(sql, params);
-		List<Map<String, Object>> datas = new ArrayList<Map<String, Object>>();
-		String lastAgreKey = null;
-		Map<String, Object> map = null;
-		String propName = null;
-		Object propVal = null;
-		try {
-			for (Map<String, Object> m : list) {
-				// 新的Vo对象t
-				String curAgreKey = (String) m.get(agreKey);
-				if (lastAgreKey == null || !curAgreKey.equals(lastAgreKey)) {
-					map = new HashMap<String, Object>();
-					datas.add(map);
-					lastAgreKey = curAgreKey;
-				}
-				for (Entry<String, Object> entry : m.entrySet()) {
-					String columLable = entry.getKey();
-					Object columVal = entry.getValue();
-					if ("propVal".equals(columLable)) {
-						continue;
-					}
-					//获取列名 和列只
-					else if ("propName".equals(columLable)) {
-						propName = (String) m.get(columLable);
-						propVal = m.get("propVal");
-					}
-					//共同的部分
-					else {
-						propName = columLable;
-						propVal = columVal;
-					}
-
-					map.put(propName, propVal);
-				}
-
-			}
-		}
-		catch (Exception ex) {
-			throw new YzgRuntimeException(ex);
-		}
-		logger.debug("[sql] " + getLogSql(sql, params) + "[" + list.size() + "]");
+		GroupingHandler handler = pivotHandler(null, agreKey);
+		readTemplate().query(sql, params, handler);
+		List<Map<String, Object>> datas = (List) handler.finish();
+		logger.debug("[sql] " + getLogSql(sql, params) + "[" + handler.rowCount + "]");
 		return datas;
 	}
+
+	/**
+	 * 与 queryToFlatMapList 相同的封装，以游标的方式遍历
+	 *
+	 * @return 处理的Map 数
+	 */
+	public int forEachFlatMap(String sql, Object[] params, String agreKey, RowProcessor<Map<String, Object>> processor) {
+		return forEachGroup(sql, params, pivotHandler(null, agreKey), processor);
+	}
 	
 	public Map<String, Object> queryToFlatMap(String sql, Object[] params,String agreKey){
 		List<Map<String, Object>> datas = queryToFlatMapList(sql, params, agreKey);
@@ -562,23 +1091,37 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	 * @param params
 	 * @return
 	 */
-	public <T> T getSingleValue(String sql, Object[] params) {
+	public <T> T getSingleValue(String sql, final Object[] params) {
 		sql = sql.trim();
-		final List<T> list = new ArrayList<T>();
-		getJdbcTemplate().query(sql, params, new RowCallbackHandler() {
+		QueryCache cache = queryCache;
+		QueryCache.Lookup lookup = lookupCache(cache, "value", sql, params);
+		if (lookup != null && lookup.isHit()) {
+			return (T) lookup.value;
+		}
+		final String querySql = sql;
+		T ret = (T) coalesce("value", sql, params, new Callable<Object>() {
 			@Override
-			public void processRow(ResultSet rs) throws SQLException {
-				try {
-					T t = (T) rs.getObject(1);
-					list.add(t);
-				}
-				catch (Exception e) {
-					throw new YzgRuntimeException();
-				}
+			public Object call() {
+				final List<Object> list = new ArrayList<Object>();
+				readTemplate().query(querySql, params, new RowCallbackHandler() {
+					@Override
+					public void processRow(ResultSet rs) throws SQLException {
+						try {
+							list.add(rs.getObject(1));
+						}
+						catch (Exception e) {
+							throw new YzgRuntimeException();
+						}
+					}
+				});
+				logger.debug("[sql] " + getLogSql(querySql, params) + "[" + list.size() + "]");
+				return list.size() > 0 ? list.get(0) : null;
 			}
-		});
-		logger.debug("[sql] " + getLogSql(sql, params) + "[" + list.size() + "]");
-		return list.size() > 0 ? list.get(0) : null;
+		}, null);
+		if (lookup != null) {
+			cache.put(lookup, ret);
+		}
+		return ret;
 	}
 
 	/**
@@ -589,74 +1132,125 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	 * @return
 	 */
 	public int update(String sql, Object[] params) {
-		int ret = getJdbcTemplate().update(sql, params);
+		int ret;
+		try {
+			ret = getJdbcTemplate().update(sql, params);
+		}
+		finally {
+			afterWrite(sql);
+		}
 		logger.debug("[sql] " + getLogSql(sql, params) + "[" + ret + "]");
 		return ret;
 	}
 
+	/**
+	 * 开始一组延迟执行的 add update(T) delete，flush 时按sql 分组批量执行，见 UnitOfWork
+	 * 
+	 * @return
+	 */
+	public UnitOfWork beginUnitOfWork() {
+		return new UnitOfWork(this);
+	}
+
+	/**
+	 * 异步执行 增 删 改 操作，打开了 enableWriteBehind 时与其它线程提交的相同sql 合并为一次 batchUpdate
+	 * 没有打开或者在事务中时直接执行
+	 * 
+	 * @param sql
+	 * @param params
+	 * @return 执行后得到影响的行数
+	 */
+	public Future<Integer> updateAsync(String sql, Object[] params) {
+		WriteBehind behind = writeBehind;
+		if (behind == null || TransactionSynchronizationManager.isActualTransactionActive()) {
+			return new DoneFuture<Integer>(update(sql, params));
+		}
+		try {
+			return behind.submit(sql, params);
+		}
+		finally {
+			markWrite();
+		}
+	}
+
+	/**
+	 * 已经完成的 Future
+	 */
+	private static final class DoneFuture<V> implements Future<V> {
+		private final V value;
+
+		DoneFuture(V value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return true;
+		}
+
+		@Override
+		public V get() {
+			return value;
+		}
+
+		@Override
+		public V get(long timeout, TimeUnit unit) {
+			return value;
+		}
+	}
+
 	/**
 	 * 基本的增删改查操作，针对一条记录
 	 */
 	/**
 	 * 如果有Column注解，通过注解获取数据库列名， 否则对应的数据库字段为属性名， 插入所有非空字段 ，标记为@PrimaryKey和@Extendable的字段不插入
 	 * 
+	 * fillGeneratedKeys 为true 时回填自增主键
+	 * 
 	 * @param t
 	 * @param pwd
 	 * @return
 	 */
 	public <T> T add(T t) {
-		Class<?> clazz = t.getClass();
-		String tableName = getTableName(t);
-		StringBuilder sqlColumn = new StringBuilder("(");
-		StringBuilder sqlValue = new StringBuilder("(");
-		List params = new ArrayList();
+		return add(t, fillGeneratedKeys);
+	}
 
-		String fname;
-		Method method;
-		Object fieldObject;
+	/**
+	 * 同 add(T t)，fillKey 为true 时通过 Statement.RETURN_GENERATED_KEYS 将自增主键回填到 t 中
+	 * 
+	 * @param t
+	 * @param fillKey
+	 * @return
+	 */
+	public <T> T add(T t, boolean fillKey) {
+		EntityMeta meta = EntityMeta.of(t.getClass());
+		String tableName = getTableName(t);
 		int ret = -1;
 		try {
-			Field[] fields = clazz.getDeclaredFields();
-			for (Field field : fields) {
-				fname = field.getName();
-				method = clazz.getDeclaredMethod("get" + capitalize(fname));
-				fieldObject = method.invoke(t);
-
-				// 不处理null
-				if (fieldObject == null) {
-					continue;
-				}
-
-				if (field.getAnnotation(Extendable.class) != null) {
-//					logger.debug(fname + "标记为@Extendable，不保存此字段");
-					continue;
-				}
-
-				// 对于seqid默认为自增主键
-				if (field.getAnnotation(PrimaryKey.class) != null) {
-//					logger.debug(fname + "为自增主键，不用插入");
-					continue;
-				}
-
-				// 通过注解获取属性对应的数据库字段名,主要用于两者不一致的表
-				Column column = field.getAnnotation(Column.class);
-				if (column != null) {
-					fname = column.columnName();
-				}
-
-				// 默认属性名和数据库字段名一致
-				sqlColumn.append(getEacapeFieldName(fname) + ",");
-				sqlValue.append("?,");
-
-				params.add(fieldObject);
-			}
-
-			String sqlInsert = "insert into " + tableName
-					+ sqlColumn.substring(0, sqlColumn.length() - 1) + ") values"
-					+ sqlValue.substring(0, sqlValue.length() - 1) + ")";
+			Object[] values = meta.values(t);
+			// 不处理null，标记为@PrimaryKey(自增主键)和@Extendable的字段不插入
+			SqlTemplate template = SqlTemplate.of(meta, SqlTemplate.INSERT, tableName, values);
 			// 执行sql
-			ret = this.update(sqlInsert, params.toArray());
-			// 如果需要回填主键，要通过查询获得，之前的实现是查询出的主键可能是错误的 TODO
+			if (fillKey && meta.isPkGenerated(values)) {
+				ret = insertReturningKeys(template.sql, template.params(values), meta, Collections.singletonList(t));
+			}
+			else {
+				ret = this.update(template.sql, template.params(values));
+			}
+			if (ret == 1) {
+				meta.track(t);
+			}
+			invalidateEntityCache(t.getClass(), tableName);
 		}
 		catch (Exception ex) {
 			logger.error(ex.getMessage());
@@ -665,6 +1259,33 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 		return ret == 1 ? t : null;
 	}
 
+	/**
+	 * 同 add(T t)，通过 updateAsync 执行，不回填主键
+	 * 相同形状(非空字段相同)的Vo 生成相同的sql，可以合并为一次 batchUpdate
+	 * 
+	 * @param t
+	 * @return 执行后得到影响的行数
+	 */
+	public <T> Future<Integer> addAsync(T t) {
+		EntityMeta meta = EntityMeta.of(t.getClass());
+		String tableName = getTableName(t);
+		Future<Integer> ret;
+		try {
+			Object[] values = meta.values(t);
+			SqlTemplate template = SqlTemplate.of(meta, SqlTemplate.INSERT, tableName, values);
+			ret = updateAsync(template.sql, template.params(values));
+		}
+		catch (YzgRuntimeException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new YzgRuntimeException(ex);
+		}
+		invalidateEntityCache(t.getClass(), tableName);
+		return ret;
+	}
+
 	/**
 	 * 如果主键存在根据主键删除 如果主键为null 或0 则根据@key 删除
 	 * 
@@ -672,63 +1293,127 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	 * @return
 	 */
 	public <T> T delete(T t) {
+		return delete(t, true);
+	}
+
+	/**
+	 * 同 delete(T t)，returnOld 为false 时不在删除前查询原记录，只执行一条 DELETE，删除成功返回 t
+	 * 
+	 * @param t
+	 * @param returnOld
+	 * @return
+	 */
+	public <T> T delete(T t, boolean returnOld) {
 		int ret = -1;
-		T old = get(t);
+		T old = returnOld ? get(t) : t;
 		try {
-			Class<?> clazz = t.getClass();
+			EntityMeta meta = EntityMeta.of(t.getClass());
 			String tableName = getTableName(t);
-			Method method;
-			Object seqId = null;
-			try {
-				method = clazz.getDeclaredMethod("getSeqId");
-				seqId = method.invoke(t);
-			} catch (Exception e) {
-				logger.debug("没有seqId");
-				e.printStackTrace();
-			}
-			
-			StringBuilder sql = new StringBuilder(" DELETE FROM " + tableName + " WHERE 1=1 ");
-			List params = new ArrayList();
-			Field[] fields = clazz.getDeclaredFields();
-			String fieldname;
-			Object fieldObject;
-
-			// 如果主键存在
-			if (seqId != null && (Long) seqId != 0) {
-				sql.append(" AND " + getPkColumnName(clazz) + " = ? ");
-				params.add(seqId);
-			}
-			else {// 否则根据@key 删除
-				for (Field field : fields) {
-					fieldname = field.getName();
-					method = clazz.getDeclaredMethod("get" + capitalize(fieldname));
-					fieldObject = method.invoke(t);
-					Object fieldValue = method.invoke(t);
-					if (field.getAnnotation(Key.class) != null && fieldObject != null) {
-						Column column = field.getAnnotation(Column.class);
-						if (column != null) {
-							fieldname = column.columnName();
-						}
-						sql.append(" AND " + fieldname + "= ? ");
-						params.add(fieldObject);
+			Object[] values = meta.values(t);
+
+			// 如果主键存在根据主键删除，否则根据@key 删除
+			SqlTemplate template = SqlTemplate.of(meta, SqlTemplate.DELETE, tableName, values);
+			ret = update(template.sql, template.params(values));
+			invalidateEntityCache(t.getClass(), tableName);
+		}
+		catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new YzgRuntimeException(ex);
+		}
+
+		return ret == 1 ? old : null;
+	}
+
+	/**
+	 * 批量删除，有主键的Vo 按表分组后通过 DELETE ... WHERE pk IN (...) 删除，每条语句最多 maxInListSize 个主键
+	 * 没有主键的Vo 按@Key 逐条删除，删除前不查询原记录
+	 * 
+	 * @param list
+	 * @return 删除的记录数
+	 */
+	public <T> int deleteAll(Collection<T> list) {
+		if (list == null || list.isEmpty()) {
+			return 0;
+		}
+		// 按 (Vo 类型, 表名) 分组
+		Map<List<Object>, List<Object>> groups = new LinkedHashMap<List<Object>, List<Object>>();
+		int ret = 0;
+		try {
+			for (T t : list) {
+				EntityMeta meta = EntityMeta.of(t.getClass());
+				Object pk = meta.getPk() == null ? null : meta.getPk().get(t);
+				if (!EntityMeta.isPkValue(pk)) {
+					if (delete(t, false) != null) {
+						ret++;
 					}
+					continue;
+				}
+				List<Object> group = Arrays.<Object> asList(t.getClass(), getTableName(t));
+				List<Object> keys = groups.get(group);
+				if (keys == null) {
+					keys = new ArrayList<Object>();
+					groups.put(group, keys);
 				}
+				keys.add(pk);
 			}
-
-			ret = update(sql.toString(), params.toArray());
+		}
+		catch (YzgRuntimeException ex) {
+			throw ex;
 		}
 		catch (Exception ex) {
 			logger.error(ex.getMessage());
 			throw new YzgRuntimeException(ex);
 		}
+		for (Map.Entry<List<Object>, List<Object>> group : groups.entrySet()) {
+			Class<?> clazz = (Class<?>) group.getKey().get(0);
+			ret += deleteByKeys(EntityMeta.of(clazz), clazz, (String) group.getKey().get(1), group.getValue());
+		}
+		return ret;
+	}
 
-		return ret == 1 ? old : null;
+	/**
+	 * 按主键批量删除，表名通过 ITableNameProvider 获取，每条语句最多 maxInListSize 个主键
+	 * clazz 注册了分表时抛出异常，使用 deleteAll
+	 * 
+	 * @param clazz
+	 *            Vo 类型
+	 * @param keys
+	 *            主键的值
+	 * @return 删除的记录数
+	 */
+	public int deleteAllByKeys(Class<?> clazz, Collection<?> keys) {
+		if (keys == null || keys.isEmpty()) {
+			return 0;
+		}
+		return deleteByKeys(EntityMeta.of(clazz), clazz, getUnshardedTableName(clazz), new ArrayList<Object>(keys));
+	}
+
+	/**
+	 * 按 maxInListSize 分段删除，重复的主键只保留一个
+	 * 每段的占位符个数取2的幂，最后一段不足时重复最后一个主键，使不同个数的删除共用少数几条sql
+	 */
+	private int deleteByKeys(EntityMeta meta, Class<?> clazz, String tableName, List<Object> keys) {
+		List<Object> distinct = new ArrayList<Object>(new LinkedHashSet<Object>(keys));
+		String prefix = " DELETE FROM " + tableName + " WHERE " + meta.getPkColumnName() + " IN (";
+		int max = Math.max(1, maxInListSize);
+		int ret = 0;
+		try {
+			for (int from = 0; from < distinct.size(); from += max) {
+				int to = Math.min(from + max, distinct.size());
+				int size = InClause.bucket(to - from, max);
+				ret += update(prefix + InClause.placeholders(size) + ")", InClause.params(distinct, from, to, size));
+			}
+		}
+		finally {
+			invalidateEntityCache(clazz, tableName);
+		}
+		return ret;
 	}
 
 	/**
-	 * TODO 如果主键存在，首先根据主键查询出对象，比较是否有变化(ts insertTime 除外)
-	 * 如果有变化再更新，目前没有比较是否变化，直接更新 根据主键或者添加了@Key注解的字段更新，null 字段不更新 ，有注解 @Key @Extendable @PrimaryKey
+	 * 根据主键或者添加了@Key注解的字段更新，null 字段不更新 ，有注解 @Key @Extendable @PrimaryKey
 	 * 的字段不更新 当有多个字段@Key都能够确定一条记录是只需要设置一个字段即可，多个也没有问题
+	 * 如果t 实现了 ITrackable 且有原始值(通过 get queryToList 查询或 add 得到)，只更新有变化的字段，没有变化时不执行sql 直接返回t
 	 * 
 	 * @param t
 	 * @return
@@ -736,72 +1421,24 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	public <T> T update(T t) {
 		int ret = -1;
 		try {
-			Class<?> clazz = t.getClass();
+			EntityMeta meta = EntityMeta.of(t.getClass());
 			String tableName = getTableName(t);
-			StringBuilder update = new StringBuilder(" UPDATE " + tableName + " SET ");
-			StringBuilder where = new StringBuilder(" WHERE 1=1 ");
-			List fieldParams = new ArrayList();
-			List condParams = new ArrayList();
-			String fieldname;
-			Object fieldObject;
-			Field[] fields = clazz.getDeclaredFields();
-			Object seqId = null;
-			Method method = null;
-			boolean seqidExist = false;
-			for (Field field : fields) {
-				PrimaryKey primaryKey = field.getAnnotation(PrimaryKey.class);
-				if (primaryKey != null && !seqidExist) {
-					method = clazz.getDeclaredMethod("get" + capitalize(field.getName()));
-					seqId = method.invoke(t);
-					if (seqId != null && (Long) seqId != 0) {
-						seqidExist = true;
-						where.append(" AND " + getPkColumnName(clazz) + " = ? ");
-						condParams.add(seqId);
-						break;
-					}
+			Object[] values = meta.values(t);
+			Object[] updateValues = values;
+			Object[] original = t instanceof ITrackable ? ((ITrackable) t).getOriginalValues() : null;
+			if (original != null && original.length == values.length) {
+				updateValues = meta.changedValues(values, original);
+				if (updateValues == null) {
+					// 没有变化
+					return t;
 				}
 			}
-
-			// if (seqId != null && (Long) seqId != 0) {
-			// seqidExist = true;
-			// where.append(" AND " + getPkColumnName(clazz) + " = ? ");
-			// condParams.add(seqId);
-			// }
-
-			for (Field field : fields) {
-				fieldname = field.getName();
-				method = clazz.getDeclaredMethod("get" + capitalize(fieldname));
-				fieldObject = method.invoke(t);
-
-				if (fieldObject == null) {
-					continue;
-				}
-
-				Column column = field.getAnnotation(Column.class);
-				if (column != null) {
-					fieldname = column.columnName();
-				}
-
-				// 如果没有根据主键更新，那么根据有注解@key且 field不为null的字段更新
-				if (!seqidExist && field.getAnnotation(Key.class) != null) {
-					where.append(" AND " + fieldname + "= ? ");
-					condParams.add(fieldObject);
-					continue;
-				}
-				if (field.getAnnotation(Extendable.class) != null) {
-					continue;
-				}
-				if (field.getAnnotation(PrimaryKey.class) != null) {
-					continue;
-				}
-
-				// 要更新的字段
-				update.append(fieldname + "= ?,");
-				fieldParams.add(fieldObject);
+			SqlTemplate template = SqlTemplate.of(meta, SqlTemplate.UPDATE, tableName, updateValues);
+			ret = update(template.sql, template.params(updateValues));
+			invalidateEntityCache(t.getClass(), tableName);
+			if (ret == 1 && t instanceof ITrackable) {
+				((ITrackable) t).setOriginalValues(EntityMeta.mergeOriginal(values, original));
 			}
-			String sql = update.substring(0, update.length() - 1) + where;
-			fieldParams.addAll(condParams);
-			ret = update(sql, fieldParams.toArray());
 		}
 		catch (Exception e) {
 			throw new YzgRuntimeException(e.getMessage());
@@ -811,219 +1448,812 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	}
 
 	/**
-	 * 首先根据主键查询 如果主键为null 或0 则根据t中添加了@Key注解的属性查询 返回单个对象
+	 * 首先根据主键查询 如果主键为null 或0 则根据t中添加了@Key注解的属性查询 返回单个对象
+	 * 
+	 * @param t
+	 * @return
+	 */
+	public <T> T get(T t) {
+		try {
+			Class clazz = t.getClass();
+			final EntityMeta meta = EntityMeta.of(clazz);
+			Object[] values = meta.values(t);
+			String tableName = this.getTableName(t, clazz);
+			// 如果主键存在按主键查询，否则根据标记为Key的所有字段查询
+			SqlTemplate template = SqlTemplate.of(meta, SqlTemplate.SELECT, tableName, values);
+			final String sql = template.sql;
+			final Object[] params = template.params(values);
+
+			EntityCache cache = entityCaches.isEmpty() || isPinned() ? null : entityCaches.get(clazz);
+			boolean fill = cache != null && mayFillCache();
+			long version = 0;
+			if (cache != null) {
+				T cached = (T) cache.get(tableName, sql, params);
+				if (cached != null) {
+					return attachLazyLoader(cached, meta, tableName);
+				}
+				version = cache.version(tableName);
+			}
+
+			// 执行查询并封装结果，有多条记录时返回最后一条
+			// 合并时以 meta 区分 get 与其它查询
+			List<T> list = (List<T>) coalesce(meta, sql, params, new Callable<List<Object>>() {
+				@Override
+				public List<Object> call() {
+					final List<Object> list = new ArrayList<Object>(1);
+					readTemplate().query(sql, params, new RowCallbackHandler() {
+						private EntityRowMapper mapper;
+
+						@Override
+						public void processRow(ResultSet rs) throws SQLException {
+							if (mapper == null) {
+								mapper = EntityRowMapper.forResultSet(meta, rs.getMetaData());
+							}
+							list.clear();
+							list.add(mapper.mapRow(rs, 0));
+						}
+					});
+					logger.debug("[sql] " + getLogSql(sql, params) + "[" + list.size() + "]");
+					return list;
+				}
+			}, beanListCopier(meta));
+
+			if (fill && list.size() > 0) {
+				cache.put(tableName, sql, params, version, list.get(0));
+			}
+			return list.size() == 0 ? null : attachLazyLoader(list.get(0), meta, tableName);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			throw new YzgRuntimeException(e);
+		}
+	}
+
+	/**
+	 * 加载 t 的所有 @Lazy 字段，一次查询，t 需要有主键
+	 * 
+	 * @param t
+	 * @return t
+	 */
+	public <T> T loadLazy(T t) {
+		EntityMeta meta = EntityMeta.of(t.getClass());
+		if (meta.getLazyFields().isEmpty()) {
+			return t;
+		}
+		Object pk;
+		try {
+			pk = meta.getPk() == null ? null : meta.getPk().get(t);
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+		if (!EntityMeta.isPkValue(pk)) {
+			throw new YzgRuntimeException(t.getClass().getName() + " 没有主键值，不能加载 @Lazy 字段");
+		}
+		loadLazyFields(t, meta, getTableName(t), pk, meta.getLazyFields());
+		return t;
+	}
+
+	/**
+	 * 按主键查询 fields 对应的列并写入 bean，ITrackable 的原始值同时更新，加载的值不视为修改
+	 */
+	void loadLazyFields(final Object bean, final EntityMeta meta, String tableName, Object pk,
+			final List<EntityMeta.FieldMeta> fields) {
+		StringBuilder columns = new StringBuilder();
+		for (EntityMeta.FieldMeta field : fields) {
+			columns.append(columns.length() == 0 ? "" : ",").append(field.escapedColumnName);
+		}
+		String sql = "SELECT " + columns + " FROM " + tableName + " WHERE " + meta.getPkColumnName() + " = ? ";
+		Object[] params = new Object[] { pk };
+		final Object[] loaded = new Object[fields.size()];
+		final int[] rows = new int[1];
+		readTemplate().query(sql, params, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				try {
+					for (int i = 0; i < fields.size(); i++) {
+						PropertyWriter writer = meta.getWriter(fields.get(i).name);
+						if (writer != null) {
+							loaded[i] = writer.read(rs, i + 1);
+							writer.write(bean, loaded[i]);
+						}
+					}
+				}
+				catch (SQLException e) {
+					throw e;
+				}
+				catch (Exception e) {
+					throw new YzgRuntimeException(e);
+				}
+				rows[0]++;
+			}
+		});
+		logger.debug("[sql] " + getLogSql(sql, params) + "[" + rows[0] + "]");
+		if (rows[0] > 0 && bean instanceof ITrackable && ((ITrackable) bean).getOriginalValues() != null) {
+			Object[] original = ((ITrackable) bean).getOriginalValues().clone();
+			for (int i = 0; i < fields.size(); i++) {
+				if (fields.get(i).index < original.length) {
+					original[fields.get(i).index] = loaded[i];
+				}
+			}
+			((ITrackable) bean).setOriginalValues(original);
+		}
+	}
+
+	/**
+	 * Vo 实现了 ILazyLoadable 且有 @Lazy 字段时设置加载器
+	 */
+	private <T> T attachLazyLoader(T bean, EntityMeta meta, String tableName) {
+		if (!(bean instanceof ILazyLoadable) || meta.getLazyFields().isEmpty()) {
+			return bean;
+		}
+		try {
+			Object pk = meta.getPk() == null ? null : meta.getPk().get(bean);
+			if (EntityMeta.isPkValue(pk)) {
+				((ILazyLoadable) bean).setLazyLoader(new LazyLoader(this, meta, tableName, pk));
+			}
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+		return bean;
+	}
+
+	/**
+	 * 批量 get，有主键的Vo 按表分组后通过 SELECT ... WHERE pk IN (...) 查询，每条语句最多 maxInListSize 个主键
+	 * 没有主键的Vo 按@Key 逐条调用 get(T)
+	 * 主键重复时每个位置是不同的Vo 对象，同逐条调用 get(T)
+	 * 
+	 * @param list
+	 * @return 与 list 一一对应，不存在的记录为null
+	 */
+	public <T> List<T> getAll(Collection<T> list) {
+		List<T> ret = new ArrayList<T>(list.size());
+		// 按 (Vo 类型, 表名) 分组，每组查询一次
+		Map<List<Object>, List<Object>> groups = new LinkedHashMap<List<Object>, List<Object>>();
+		List<Object> keys = new ArrayList<Object>(list.size());
+		List<List<Object>> keyGroups = new ArrayList<List<Object>>(list.size());
+		try {
+			for (T t : list) {
+				EntityMeta meta = EntityMeta.of(t.getClass());
+				Object pk = meta.getPk() == null ? null : meta.getPk().get(t);
+				if (!EntityMeta.isPkValue(pk)) {
+					keys.add(null);
+					keyGroups.add(null);
+					ret.add(get(t));
+					continue;
+				}
+				List<Object> group = Arrays.<Object> asList(t.getClass(), getTableName(t));
+				List<Object> groupKeys = groups.get(group);
+				if (groupKeys == null) {
+					groupKeys = new ArrayList<Object>();
+					groups.put(group, groupKeys);
+				}
+				groupKeys.add(pk);
+				keys.add(pk);
+				keyGroups.add(group);
+				ret.add(null);
+			}
+		}
+		catch (YzgRuntimeException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new YzgRuntimeException(ex);
+		}
+		Map<List<Object>, Map<Object, Object>> found = new HashMap<List<Object>, Map<Object, Object>>();
+		for (Map.Entry<List<Object>, List<Object>> group : groups.entrySet()) {
+			EntityMeta meta = EntityMeta.of((Class<?>) group.getKey().get(0));
+			found.put(group.getKey(), selectByKeys(meta, (String) group.getKey().get(1), group.getValue()));
+		}
+		Map<Object, Object> used = new IdentityHashMap<Object, Object>();
+		for (int i = 0; i < keyGroups.size(); i++) {
+			List<Object> group = keyGroups.get(i);
+			if (group != null) {
+				Object bean = found.get(group).get(keyOf(keys.get(i)));
+				ret.set(i, (T) unshared(used, bean, (String) group.get(1)));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 同一个Vo 已经在结果的其它位置时返回副本，避免修改一个位置影响其它位置
+	 */
+	private Object unshared(Map<Object, Object> used, Object bean, String tableName) {
+		if (bean == null || used.put(bean, bean) == null) {
+			return bean;
+		}
+		EntityMeta meta = EntityMeta.of(bean.getClass());
+		return attachLazyLoader(meta.copy(bean), meta, tableName);
+	}
+
+	/**
+	 * 按主键批量查询，表名通过 ITableNameProvider 获取，clazz 注册了分表时抛出异常，使用 getAll
+	 * 
+	 * @param clazz
+	 *            Vo 类型
+	 * @param keys
+	 *            主键的值
+	 * @return 与 keys 一一对应，不存在的记录为null，主键重复时各位置为不同的Vo 对象
+	 */
+	public <T> List<T> getAllByKeys(Class<?> clazz, Collection<?> keys) {
+		String tableName = getUnshardedTableName(clazz);
+		Map<Object, Object> found = selectByKeys(EntityMeta.of(clazz), tableName, new ArrayList<Object>(keys));
+		List<T> ret = new ArrayList<T>(keys.size());
+		Map<Object, Object> used = new IdentityHashMap<Object, Object>();
+		for (Object key : keys) {
+			ret.add((T) unshared(used, found.get(keyOf(key)), tableName));
+		}
+		return ret;
+	}
+
+	/**
+	 * 按主键批量查询，返回 主键 -> Vo，顺序与 keys 一致，不存在的记录不包含在结果中，clazz 注册了分表时抛出异常
+	 * 
+	 * @param clazz
+	 *            Vo 类型
+	 * @param keys
+	 *            主键的值
+	 * @return
+	 */
+	public <T> Map<Object, T> getAllMapByKeys(Class<?> clazz, Collection<?> keys) {
+		Map<Object, Object> found = selectByKeys(EntityMeta.of(clazz), getUnshardedTableName(clazz), new ArrayList<Object>(keys));
+		Map<Object, T> ret = new LinkedHashMap<Object, T>();
+		for (Object key : keys) {
+			Object bean = found.get(keyOf(key));
+			if (bean != null) {
+				ret.put(key, (T) bean);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 按 maxInListSize 分段查询，占位符个数的取法同 deleteByKeys
+	 * 
+	 * @return keyOf(主键) -> Vo
+	 */
+	private Map<Object, Object> selectByKeys(final EntityMeta meta, final String tableName, List<Object> keys) {
+		final Map<Object, Object> found = new HashMap<Object, Object>();
+		if (keys.isEmpty()) {
+			return found;
+		}
+		List<Object> distinct = new ArrayList<Object>(new LinkedHashSet<Object>(keys));
+		String prefix = "SELECT " + meta.getSelectColumns() + " FROM " + tableName + " WHERE " + meta.getPkColumnName()
+				+ " IN (";
+		int max = Math.max(1, maxInListSize);
+		for (int from = 0; from < distinct.size(); from += max) {
+			int to = Math.min(from + max, distinct.size());
+			int size = InClause.bucket(to - from, max);
+			String sql = prefix + InClause.placeholders(size) + ")";
+			Object[] params = InClause.params(distinct, from, to, size);
+			final int[] rows = new int[1];
+			readTemplate().query(sql, params, new RowCallbackHandler() {
+				private EntityRowMapper mapper;
+
+				@Override
+				public void processRow(ResultSet rs) throws SQLException {
+					if (mapper == null) {
+						mapper = EntityRowMapper.forResultSet(meta, rs.getMetaData());
+					}
+					Object bean = mapper.mapRow(rs, rows[0]++);
+					try {
+						Object pk = meta.getPk().get(bean);
+						found.put(keyOf(pk), bean);
+						if (bean instanceof ILazyLoadable && !meta.getLazyFields().isEmpty()) {
+							((ILazyLoadable) bean).setLazyLoader(new LazyLoader(JdbcBaseDao.this, meta, tableName, pk));
+						}
+					}
+					catch (Exception e) {
+						throw new YzgRuntimeException(e);
+					}
+				}
+			});
+			logger.debug("[sql] " + getLogSql(sql, params) + "[" + rows[0] + "]");
+		}
+		return found;
+	}
+
+	/**
+	 * 主键比较用的值，整数统一为 Long，使 Integer Long BigInteger 等类型的主键可以互相匹配
+	 */
+	static Object keyOf(Object key) {
+		if (key instanceof Number && !(key instanceof Double || key instanceof Float || key instanceof BigDecimal)) {
+			return Long.valueOf(((Number) key).longValue());
+		}
+		return key;
+	}
+
+	/**
+	 * 批量更新操作
+	 * @param sql
+	 * @param batchArgs
+	 * @return
+	 */
+	public int[] batchUpdate(String sql, final List<Object[]> batchArgs) {
+		int[] retArray;
+		try {
+			retArray = batchUpdateInternal(sql, batchArgs);
+		}
+		finally {
+			afterWrite(sql);
+		}
+
+		if (logger.isDebugEnabled()) {
+			for (int i = 0; i < batchArgs.size(); i++) {
+				logger.debug("[sql] " + getLogSql(sql, batchArgs.get(i)) + "[" + retArray[i] + "]");
+			}
+		}
+
+		return retArray;
+	}
+
+	private int[] batchUpdateInternal(String sql, final List<Object[]> batchArgs) {
+		return getJdbcTemplate().batchUpdate(sql, new BatchPreparedStatementSetter() {
+
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				Object[] values = batchArgs.get(i);
+				for (int j = 1; j <= values.length; j++) {
+					ps.setObject(j, values[j - 1]);
+				}
+			}
+
+			@Override
+			public int getBatchSize() {
+				return batchArgs.size();
+			}
+		});
+	}
+
+	public <T> int[] addList(final List<T> list, Class clazz) {
+		return addList(list, clazz, fillGeneratedKeys);
+	}
+
+	/**
+	 * 同 addList(List<T> list, Class clazz)，fillKeys 为true 时按顺序将自增主键回填到各元素中
+	 * 
+	 * @param list
+	 * @param clazz
+	 * @param fillKeys
+	 * @return
+	 */
+	public <T> int[] addList(final List<T> list, Class clazz, boolean fillKeys) {
+		if (null == list || 0 == list.size()) {
+			return new int[0];
+		}
+		ShardedTable shards = shardedTables.get(clazz);
+		if (shards == null) {
+			return addList(list, clazz, fillKeys, getTableNameByClazz(clazz));
+		}
+		// 分表时按表分组插入，返回值按原来的顺序
+		int[] ret = new int[list.size()];
+		for (Map.Entry<String, List<Integer>> group : groupByShard(list, shards).entrySet()) {
+			List<Integer> positions = group.getValue();
+			int[] counts = addList(pick(list, positions), clazz, fillKeys, group.getKey());
+			for (int i = 0; i < positions.size() && i < counts.length; i++) {
+				ret[positions.get(i)] = counts[i];
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 分表的Vo 按所在的表分组，表名 -> 在 list 中的下标
+	 */
+	private <T> Map<String, List<Integer>> groupByShard(List<T> list, ShardedTable shards) {
+		Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < list.size(); i++) {
+			String tableName = shards.getTableName(list.get(i));
+			List<Integer> positions = groups.get(tableName);
+			if (positions == null) {
+				positions = new ArrayList<Integer>();
+				groups.put(tableName, positions);
+			}
+			positions.add(i);
+		}
+		return groups;
+	}
+
+	private static <T> List<T> pick(List<T> list, List<Integer> positions) {
+		List<T> ret = new ArrayList<T>(positions.size());
+		for (Integer i : positions) {
+			ret.add(list.get(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * clazz 的表名，clazz 注册了分表时抛出异常，用于只有主键没有Vo 的批量操作
+	 */
+	private String getUnshardedTableName(Class<?> clazz) {
+		if (shardedTables.containsKey(clazz)) {
+			throw new YzgRuntimeException(clazz.getName() + " 注册了分表，无法由主键确定表，请使用 getAll deleteAll");
+		}
+		return getTableNameByClazz(clazz);
+	}
+
+	private <T> int[] addList(List<T> list, Class clazz, boolean fillKeys, String tableName) {
+		EntityMeta meta = EntityMeta.of(clazz);
+		/**
+		 * 生成sql，插入的列由第一个元素的非空字段决定
+		 * 参数列表与sql中的列一一对应
+		 */
+		SqlTemplate template;
+		boolean fill;
+		List<Object[]> batchArgs = new ArrayList<Object[]>(list.size());
+		try {
+			Object[] values = meta.values(list.get(0));
+			template = SqlTemplate.of(meta, SqlTemplate.INSERT, tableName, values);
+			fill = fillKeys && meta.isPkGenerated(values);
+			for (T t : list) {
+				batchArgs.add(template.paramsOf(t));
+			}
+		}
+		catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new YzgRuntimeException(ex);
+		}
+
+		try {
+			if (fill) {
+				return batchInsertReturningKeys(template.sql, batchArgs, meta, list);
+			}
+			return batchUpdate(template.sql, batchArgs);
+		}
+		finally {
+			invalidateEntityCache(clazz, tableName);
+		}
+	}
+
+	/**
+	 * 批量插入，与 addList 插入相同的列，但每条语句插入多行 insert into t(a,b) values(?,?),(?,?),...
+	 * 每条语句的行数不超过 insertBatchRows，参数个数不超过 maxInsertParams
+	 * 不足一整批的部分按2的幂拆分(如 37 = 32 + 4 + 1)，使语句的形状保持固定，预编译语句缓存可以命中
+	 *
+	 * @param list
+	 * @param clazz
+	 * @return 插入的行数
+	 */
+	public <T> int addListBulk(List<T> list, Class clazz) {
+		return addListBulk(list, clazz, null);
+	}
+
+	/**
+	 * 同 addListBulk(List<T> list, Class clazz)，executor 不为null 时各批在 executor 中通过各自的连接并行执行
+	 * 并行插入不在同一个事务中，当前线程有事务时忽略 executor，在当前事务中顺序执行
+	 *
+	 * @param list
+	 * @param clazz
+	 * @param executor
+	 * @return 插入的行数
+	 */
+	public <T> int addListBulk(List<T> list, Class clazz, ExecutorService executor) {
+		if (null == list || 0 == list.size()) {
+			return 0;
+		}
+		ShardedTable shards = shardedTables.get(clazz);
+		if (shards == null) {
+			return addListBulk(list, clazz, executor, getTableNameByClazz(clazz));
+		}
+		int ret = 0;
+		for (Map.Entry<String, List<Integer>> group : groupByShard(list, shards).entrySet()) {
+			ret += addListBulk(pick(list, group.getValue()), clazz, executor, group.getKey());
+		}
+		return ret;
+	}
+
+	private <T> int addListBulk(List<T> list, Class clazz, ExecutorService executor, String tableName) {
+		final EntityMeta meta = EntityMeta.of(clazz);
+		final SqlTemplate template;
+		final boolean fill;
+		try {
+			Object[] values = meta.values(list.get(0));
+			template = SqlTemplate.of(meta, SqlTemplate.INSERT, tableName, values);
+			fill = fillGeneratedKeys && meta.isPkGenerated(values);
+		}
+		catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new YzgRuntimeException(ex);
+		}
+		List<int[]> chunks = chunks(list.size(), template);
+
+		try {
+			if (executor == null || chunks.size() == 1 || TransactionSynchronizationManager.isActualTransactionActive()) {
+				int ret = 0;
+				for (int[] chunk : chunks) {
+					ret += insertChunk(template, list, chunk[0], chunk[1], fill ? meta : null);
+				}
+				return ret;
+			}
+			return insertChunksParallel(template, list, chunks, fill ? meta : null, executor);
+		}
+		finally {
+			markWrite();
+			invalidateEntityCache(clazz, tableName);
+		}
+	}
+
+	/**
+	 * 多行语句每批的起止位置，每批最多 insertBatchRows 行且参数不超过 maxInsertParams
+	 * 剩余不足一批的部分按2的幂拆分，使不同行数的调用共用少数几种sql
+	 */
+	private List<int[]> chunks(int size, SqlTemplate template) {
+		int columnCount = Math.max(1, template.paramCount());
+		int chunkRows = Math.max(1, Math.min(insertBatchRows, maxInsertParams / columnCount));
+		List<int[]> chunks = new ArrayList<int[]>();
+		int from = 0;
+		while (from < size) {
+			int rows = size - from;
+			if (rows >= chunkRows) {
+				rows = chunkRows;
+			}
+			else {
+				rows = Integer.highestOneBit(rows);
+			}
+			chunks.add(new int[] { from, from + rows });
+			from += rows;
+		}
+		return chunks;
+	}
+
+	/**
+	 * 插入或更新一条记录，通过 INSERT ... ON DUPLICATE KEY UPDATE 一次完成(MySQL)
+	 * 插入所有非空字段，有主键值时包括主键；主键或唯一键冲突时更新这些字段，主键和@Key 字段不更新
+	 * 
+	 * @param t
+	 * @return MySQL 的返回值：插入为1，更新为2，没有变化为0
+	 */
+	public <T> int upsert(T t) {
+		EntityMeta meta = EntityMeta.of(t.getClass());
+		String tableName = getTableName(t);
+		try {
+			Object[] values = meta.values(t);
+			SqlTemplate template = SqlTemplate.of(meta, SqlTemplate.UPSERT, tableName, values);
+			return update(template.sql, template.params(values));
+		}
+		catch (YzgRuntimeException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new YzgRuntimeException(ex);
+		}
+		finally {
+			invalidateEntityCache(t.getClass(), tableName);
+		}
+	}
+
+	/**
+	 * 批量 upsert，非空字段相同的Vo 生成同一条sql，每种sql 按 addListBulk 的方式分批，每批一条多行语句
+	 * 每个Vo 只写入自己的非空字段，不会把其它Vo 有值而自己为null 的字段更新为null
+	 * 
+	 * @param list
+	 * @param clazz
+	 * @return 各语句返回值的和，见 upsert
+	 */
+	public <T> int upsertAll(List<T> list, Class clazz) {
+		if (null == list || 0 == list.size()) {
+			return 0;
+		}
+		ShardedTable shards = shardedTables.get(clazz);
+		String baseTableName = shards == null ? getTableNameByClazz(clazz) : null;
+		Set<String> tableNames = new LinkedHashSet<String>();
+		EntityMeta meta = EntityMeta.of(clazz);
+		// 按sql 分组，同一形状的sql 相同；模板超过缓存上限时不是同一个对象，不能按对象分组
+		Map<String, SqlTemplate> templates = new HashMap<String, SqlTemplate>();
+		Map<String, List<Object[]>> groups = new LinkedHashMap<String, List<Object[]>>();
+		try {
+			for (T t : list) {
+				Object[] values = meta.values(t);
+				// 分表时按各Vo 所在的表，不同的表生成不同的sql
+				String tableName = shards == null ? baseTableName : shards.getTableName(t);
+				tableNames.add(tableName);
+				SqlTemplate template = SqlTemplate.of(meta, SqlTemplate.UPSERT, tableName, values);
+				List<Object[]> rows = groups.get(template.sql);
+				if (rows == null) {
+					rows = new ArrayList<Object[]>();
+					groups.put(template.sql, rows);
+					templates.put(template.sql, template);
+				}
+				rows.add(template.params(values));
+			}
+		}
+		catch (YzgRuntimeException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new YzgRuntimeException(ex);
+		}
+		int ret = 0;
+		try {
+			for (Map.Entry<String, List<Object[]>> group : groups.entrySet()) {
+				SqlTemplate template = templates.get(group.getKey());
+				List<Object[]> rows = group.getValue();
+				int columnCount = template.paramCount();
+				for (int[] chunk : chunks(rows.size(), template)) {
+					Object[] params = new Object[(chunk[1] - chunk[0]) * columnCount];
+					for (int i = chunk[0]; i < chunk[1]; i++) {
+						System.arraycopy(rows.get(i), 0, params, (i - chunk[0]) * columnCount, columnCount);
+					}
+					int count;
+					try {
+						count = getJdbcTemplate().update(template.multiRowSql(chunk[1] - chunk[0]), params);
+					}
+					finally {
+						afterWrite(template.sql);
+					}
+					logger.debug("[sql] " + template.sql + " x" + (chunk[1] - chunk[0]) + "[" + count + "]");
+					ret += count;
+				}
+			}
+		}
+		finally {
+			for (String tableName : tableNames) {
+				invalidateEntityCache(clazz, tableName);
+			}
+		}
+		return ret;
+	}
+
+	private <T> int insertChunksParallel(final SqlTemplate template, final List<T> list, List<int[]> chunks,
+			final EntityMeta keyMeta, ExecutorService executor) {
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>(chunks.size());
+		for (final int[] chunk : chunks) {
+			futures.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return insertChunk(template, list, chunk[0], chunk[1], keyMeta);
+				}
+			}));
+		}
+		int ret = 0;
+		try {
+			for (Future<Integer> future : futures) {
+				ret += future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new YzgRuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new YzgRuntimeException(e.getCause());
+		}
+		return ret;
+	}
+
+	/**
+	 * @param keyMeta
+	 *            需要回填自增主键时不为null
+	 */
+	private <T> int insertChunk(SqlTemplate template, List<T> list, int from, int to, EntityMeta keyMeta) {
+		int columnCount = template.paramCount();
+		Object[] params = new Object[(to - from) * columnCount];
+		try {
+			for (int i = from; i < to; i++) {
+				Object[] row = template.paramsOf(list.get(i));
+				System.arraycopy(row, 0, params, (i - from) * columnCount, columnCount);
+			}
+		}
+		catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new YzgRuntimeException(ex);
+		}
+		String sql = template.multiRowSql(to - from);
+		int ret;
+		if (keyMeta != null) {
+			// MySQL 多行插入返回的自增主键与 VALUES 的顺序一致
+			ret = insertReturningKeys(sql, params, keyMeta, list.subList(from, to));
+		}
+		else {
+			ret = getJdbcTemplate().update(sql, params);
+			afterWrite(template.sql);
+		}
+		// 多行语句很长，只打印单行的形状
+		logger.debug("[sql] " + template.sql + " x" + (to - from) + "[" + ret + "]");
+		return ret;
+	}
+
+	/**
+	 * 执行插入并将生成的主键按顺序回填到 beans 中，一次请求完成
 	 * 
-	 * @param t
+	 * @param sql
+	 * @param params
+	 * @param meta
+	 * @param beans
+	 *            与插入的行一一对应
 	 * @return
 	 */
-	public <T> T get(T t) {
-		try {
-			Class clazz = t.getClass();
-			Field[] fields = clazz.getDeclaredFields();
-			Method primaryKeyMethod = null;
-			Object primaryKey = null;
-			for (Field field : fields) {
-				if (field.getAnnotation(PrimaryKey.class) != null) {
-					String expectedColumnName = getColumnName(field);
-					primaryKeyMethod = clazz.getDeclaredMethod("get"
-							+ StringTools.firstCharToUpperCase(expectedColumnName));
-					primaryKey = primaryKeyMethod.invoke(t);
-				}
-			}
-			List params = new ArrayList();
-			Map<String, String> column2Field = new HashMap<String, String>();
-			String tableName = this.getTableName(t, clazz);
-			StringBuilder sql = new StringBuilder("SELECT * FROM " + tableName + " WHERE 1=1 ");
-			// 如果主键存在
-			if (primaryKey != null && (Long) primaryKey != 0) {
-				sql.append(" AND " + getPkColumnName(clazz) + " = ? ");
-				params.add(primaryKey);
-			}
-			else {// 否则
-				for (Field field : fields) {
-					String fname = field.getName();
-					Method method = clazz.getDeclaredMethod("get" + capitalize(fname));
-					Object fieldValue = method.invoke(t);
-					Column column = field.getAnnotation(Column.class);
-					// 根据标记为Key的所有字段查询
-					if (field.getAnnotation(Key.class) != null && fieldValue != null) {
-						if (column != null) {
-							fname = column.columnName();
-						}
-						sql.append(" AND " + fname + "= ? ");
-						params.add(fieldValue);
-					}
-
+	private int insertReturningKeys(final String sql, final Object[] params, final EntityMeta meta, final List<?> beans) {
+		int ret = getJdbcTemplate().execute(new ConnectionCallback<Integer>() {
+			@Override
+			public Integer doInConnection(Connection con) throws SQLException {
+				PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+				try {
+					setParams(ps, params);
+					int rows = ps.executeUpdate();
+					fillKeys(ps, meta, beans);
+					return rows;
 				}
-			}
-
-			for (Field field : fields) {
-				String fname = this.getColumnName(field);
-				column2Field.put(fname, field.getName());
-			}
-
-			// 执行查询并封装结果
-			List<Map<String, Object>> list = queryToListMap(sql.toString(), params.toArray());
-			t = (T) clazz.newInstance();
-
-			for (Map<String, Object> map : list) {
-				for (Entry<String, Object> entry : map.entrySet()) {
-					String columnName = entry.getKey();
-					Object fieldObject = entry.getValue();
-//					logger.debug("columnName="+columnName);
-					if (fieldObject == null) {
-						continue;
-					}
-					//首先判断属性是否存在
-					try {
-						String propertyValue = BeanUtils.getProperty(t, column2Field.get(columnName));
-					} catch (Exception e) {
-						logger.debug("do not have such property");
-						e.printStackTrace();
-					}
-					BeanUtils.setProperty(t, column2Field.get(columnName), fieldObject);
+				finally {
+					JdbcUtils.closeStatement(ps);
 				}
 			}
-
-			return list.size() == 0 ? null : t;
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-			throw new YzgRuntimeException(e);
+		});
+		afterWrite(sql);
+		if (logger.isDebugEnabled()) {
+			logger.debug("[sql] " + (beans.size() == 1 ? getLogSql(sql, params) : sql.substring(0, Math.min(sql.length(), 200)))
+					+ "[" + ret + "]");
 		}
+		return ret;
 	}
 
 	/**
-	 * 批量更新操作
+	 * 批量插入并将生成的主键按顺序回填到 beans 中
+	 * 
 	 * @param sql
 	 * @param batchArgs
+	 * @param meta
+	 * @param beans
+	 *            与 batchArgs 一一对应
 	 * @return
 	 */
-	public int[] batchUpdate(String sql, final List<Object[]> batchArgs) {
-		int[] retArray = getJdbcTemplate().batchUpdate(sql, new BatchPreparedStatementSetter() {
-
+	int[] batchInsertReturningKeys(final String sql, final List<Object[]> batchArgs, final EntityMeta meta,
+			final List<?> beans) {
+		int[] retArray = getJdbcTemplate().execute(new ConnectionCallback<int[]>() {
 			@Override
-			public void setValues(PreparedStatement ps, int i) throws SQLException {
-				Object[] values = batchArgs.get(i);
-				for (int j = 1; j <= values.length; j++) {
-					ps.setObject(j, values[j - 1]);
+			public int[] doInConnection(Connection con) throws SQLException {
+				PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+				try {
+					for (Object[] params : batchArgs) {
+						setParams(ps, params);
+						ps.addBatch();
+					}
+					int[] rows = ps.executeBatch();
+					fillKeys(ps, meta, beans);
+					return rows;
+				}
+				finally {
+					JdbcUtils.closeStatement(ps);
 				}
-			}
-
-			@Override
-			public int getBatchSize() {
-				return batchArgs.size();
 			}
 		});
-
-		for (int i = 0; i < batchArgs.size(); i++) {
-			logger.debug("[sql] " + getLogSql(sql, batchArgs.get(i)) + "[" + retArray[i] + "]");
+		afterWrite(sql);
+		if (logger.isDebugEnabled()) {
+			for (int i = 0; i < batchArgs.size(); i++) {
+				logger.debug("[sql] " + getLogSql(sql, batchArgs.get(i)) + "[" + retArray[i] + "]");
+			}
 		}
-
 		return retArray;
 	}
 
-	public <T> int[] addList(final List<T> list, Class clazz) {
-		if (null == list || 0 == list.size()) {
-			return new int[0];
+	private static void setParams(PreparedStatement ps, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; i++) {
+			StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, params[i]);
 		}
+	}
 
-		getTableNameProvider().setDaoClass(clazz);
-		String tableName = getTableNameProvider().getTableName();
-		StringBuilder sqlColumn = new StringBuilder("(");
-		StringBuilder sqlValue = new StringBuilder("(");
-
-		T t = list.get(0);
-		String fname;
-		Method method;
-		Object fieldObject;
-		String sqlInsert;
-		/**
-		 * 生成sql
-		 */
+	/**
+	 * 按顺序读取生成的主键并回填
+	 */
+	private static void fillKeys(PreparedStatement ps, EntityMeta meta, List<?> beans) throws SQLException {
+		ResultSet keys = ps.getGeneratedKeys();
 		try {
-			Field[] fields = clazz.getDeclaredFields();
-			for (Field field : fields) {
-				fname = field.getName();
-				method = clazz.getDeclaredMethod("get" + capitalize(fname));
-				fieldObject = method.invoke(t);
-
-				// 不处理null
-				if (fieldObject == null) {
-					continue;
-				}
-
-				if (field.getAnnotation(Extendable.class) != null) {
-					logger.debug(fname + "标记为@Extendable，不保存此字段");
-					continue;
-				}
-
-				// 对于seqid默认为自增主键
-				if (field.getAnnotation(PrimaryKey.class) != null) {
-					logger.debug(fname + "为自增主键，不用插入");
-					continue;
-				}
-
-				// 通过注解获取属性对应的数据库字段名,主要用于两者不一致的表
-				Column column = field.getAnnotation(Column.class);
-				if (column != null) {
-					fname = column.columnName();
-				}
-
-				// 默认属性名和数据库字段名一致
-				sqlColumn.append(getEacapeFieldName(fname) + ",");
-				sqlValue.append("?,");
-			}
-
-			sqlInsert = "insert into " + tableName + sqlColumn.substring(0, sqlColumn.length() - 1)
-					+ ") values" + sqlValue.substring(0, sqlValue.length() - 1) + ")";
-		}
-		catch (Exception ex) {
-			logger.error(ex.getMessage());
-			throw new YzgRuntimeException(ex);
-		}
-
-		/**
-		 * 生成参数列表
-		 */
-		List<Object[]> batchArgs = new ArrayList<Object[]>();
-		for (int i = 0; i < list.size(); i++) {
-			t = list.get(i);
-			List params = new ArrayList();
-			try {
-				Field[] fields = clazz.getDeclaredFields();
-				for (Field field : fields) {
-					fname = field.getName();
-					method = clazz.getDeclaredMethod("get" + capitalize(fname));
-					fieldObject = method.invoke(t);
-
-					// 不处理null
-					if (fieldObject == null) {
-						continue;
-					}
-
-					if (field.getAnnotation(Extendable.class) != null) {
-						logger.debug(fname + "标记为@Extendable，不保存此字段");
-						continue;
-					}
-
-					// 对于seqid默认为自增主键
-					if (field.getAnnotation(PrimaryKey.class) != null) {
-						logger.debug(fname + "为自增主键，不用插入");
-						continue;
-					}
-
-					params.add(fieldObject);
-				}
+			int i = 0;
+			while (keys.next() && i < beans.size()) {
+				meta.setPkValue(beans.get(i++), keys.getObject(1));
 			}
-			catch (Exception ex) {
-				logger.error(ex.getMessage());
-				throw new YzgRuntimeException(ex);
+			if (i < beans.size()) {
+				logger.warn("生成的主键数 " + i + " 少于插入的行数 " + beans.size());
 			}
-			batchArgs.add(params.toArray());
 		}
-
-		return batchUpdate(sqlInsert, batchArgs);
+		finally {
+			JdbcUtils.closeResultSet(keys);
+		}
 	}
 
 	/**
@@ -1033,9 +2263,13 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	 */
 	private <T> String getTableName(T t, Class clazz) {
 		String tableName;
+		ShardedTable shards;
 		if (t instanceof ITableName) {
 			tableName = ((ITableName) t).getTableName();
 		}
+		else if ((shards = shardedTables.get(t.getClass())) != null) {
+			tableName = shards.getTableName(t);
+		}
 		else {
 			getTableNameProvider().setDaoClass(clazz);
 			tableName = getTableNameProvider().getTableName();
@@ -1043,35 +2277,110 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 		return tableName;
 	}
 
-	/**
-	 * @param field
-	 */
-	private String getColumnName(Field field) {
-		String expectedColumnName = StringTools.EMPTY;
-		Column column = field.getAnnotation(Column.class);
-		if (column != null)
-			expectedColumnName = column.columnName();
-		else
-			expectedColumnName = field.getName();
-		return expectedColumnName;
-	}
-
 	/**
 	 * 根据某一sql语句返回记录Map对象
 	 */
 
 	public <K, V> Map<K, V> queryToMap(String sql, Object[] params) {
+		QueryCache cache = queryCache;
+		QueryCache.Lookup lookup = lookupCache(cache, "map", sql, params);
+		if (lookup != null && lookup.isHit()) {
+			// 缓存的结果是共用的，返回副本
+			return new HashMap<K, V>((Map<K, V>) lookup.value);
+		}
 		final Map<K, V> map = new HashMap<K, V>();
-		getJdbcTemplate().query(sql, params, new RowCallbackHandler() {
+		readTemplate().query(sql, params, new RowCallbackHandler() {
 			@Override
 			public void processRow(ResultSet rs) throws SQLException {
 				map.put((K) rs.getObject(1), (V) rs.getObject(2));
 			}
 		});
 		logger.debug("[sql] " + getLogSql(sql, params) + "[" + map.size() + "]");
+		if (lookup != null) {
+			cache.put(lookup, Collections.unmodifiableMap(new HashMap<K, V>(map)));
+		}
+		return map;
+	}
+
+	/**
+	 * 两列的查询结果 (long, long) 放入 LongLongMap，直接通过 getLong 读取，不创建包装对象
+	 * 用于加载数据量很大的 id -> 数量 等查找表；第一列为null 的行忽略，第二列为null 时为0
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param expectedSize
+	 *            预计的行数，按此分配空间，避免加载过程中扩容
+	 * @return
+	 */
+	public LongLongMap queryToLongLongMap(String sql, Object[] params, int expectedSize) {
+		sql = sql.trim();
+		final LongLongMap map = new LongLongMap(expectedSize);
+		readTemplate().query(sql, params, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				long key = rs.getLong(1);
+				if (key == 0 && rs.wasNull()) {
+					return;
+				}
+				map.put(key, rs.getLong(2));
+			}
+		});
+		logger.debug("[sql] " + getLogSql(sql, params) + "[" + map.size() + "]");
+		return map;
+	}
+
+	public LongLongMap queryToLongLongMap(String sql, Object[] params) {
+		return queryToLongLongMap(sql, params, 16);
+	}
+
+	/**
+	 * 两列的查询结果 (long, double) 放入 LongDoubleMap，见 queryToLongLongMap
+	 */
+	public LongDoubleMap queryToLongDoubleMap(String sql, Object[] params, int expectedSize) {
+		sql = sql.trim();
+		final LongDoubleMap map = new LongDoubleMap(expectedSize);
+		readTemplate().query(sql, params, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				long key = rs.getLong(1);
+				if (key == 0 && rs.wasNull()) {
+					return;
+				}
+				map.put(key, rs.getDouble(2));
+			}
+		});
+		logger.debug("[sql] " + getLogSql(sql, params) + "[" + map.size() + "]");
+		return map;
+	}
+
+	public LongDoubleMap queryToLongDoubleMap(String sql, Object[] params) {
+		return queryToLongDoubleMap(sql, params, 16);
+	}
+
+	/**
+	 * 两列的查询结果 (long, 任意类型) 放入 LongObjectMap，见 queryToLongLongMap，第二列为null 时为null
+	 */
+	public <V> LongObjectMap<V> queryToLongObjectMap(String sql, Object[] params, int expectedSize) {
+		sql = sql.trim();
+		final LongObjectMap<V> map = new LongObjectMap<V>(expectedSize);
+		readTemplate().query(sql, params, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				long key = rs.getLong(1);
+				if (key == 0 && rs.wasNull()) {
+					return;
+				}
+				map.put(key, (V) rs.getObject(2));
+			}
+		});
+		logger.debug("[sql] " + getLogSql(sql, params) + "[" + map.size() + "]");
 		return map;
 	}
 
+	public <V> LongObjectMap<V> queryToLongObjectMap(String sql, Object[] params) {
+		return queryToLongObjectMap(sql, params, 16);
+	}
+
 	// public <K, V> Map<K, V> queryToMap(String sql, Object[] params) {
 	// return queryToMap(sql, params, null, null);
 	// }
@@ -1081,7 +2390,7 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 		final Map<K, V> datas = new LinkedHashMap<K, V>();
 		if (key != null && value != null)
 			datas.put(key, value);
-		getJdbcTemplate().query(sql, params, new RowCallbackHandler() {
+		readTemplate().query(sql, params, new RowCallbackHandler() {
 			@Override
 			public void processRow(ResultSet rs) throws SQLException {
 				datas.put((K) rs.getObject(1), (V) rs.getObject(2));
@@ -1093,7 +2402,7 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 
 	public int getSingleInt(String sql, Object[] params) {
 		try {
-			int ret = super.getJdbcTemplate().queryForInt(sql, params);
+			int ret = readTemplate().queryForInt(sql, params);
 			logger.debug("[sql] " + getLogSql(sql, params) + "[1]");
 			return ret;
 		}
@@ -1104,9 +2413,17 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	}
 
 	public long getSingleLong(String sql, Object[] params) {
+		QueryCache cache = queryCache;
+		QueryCache.Lookup lookup = lookupCache(cache, "long", sql, params);
+		if (lookup != null && lookup.isHit()) {
+			return ((Long) lookup.value).longValue();
+		}
 		try {
-			long ret = super.getJdbcTemplate().queryForLong(sql, params);
+			long ret = readTemplate().queryForLong(sql, params);
 			logger.debug("[sql] " + getLogSql(sql, params) + "[1]");
+			if (lookup != null) {
+				cache.put(lookup, Long.valueOf(ret));
+			}
 			return ret;
 		}
 		catch (DataAccessException e) {
@@ -1121,7 +2438,7 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	public double getSingleDouble(String sql, Object[] params) {
 		try {
 			sql = sql.trim();
-			Double d = (Double) getJdbcTemplate().queryForObject(sql, params, Double.class);
+			Double d = (Double) readTemplate().queryForObject(sql, params, Double.class);
 			logger.debug("[sql] " + getLogSql(sql, params) + "[1]");
 			if (null != d) {
 				return d.doubleValue();
@@ -1142,7 +2459,7 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 	public String getSingleString(String sql, Object[] params) {
 		try {
 			sql = sql.trim();
-			String data = (String) getJdbcTemplate().queryForObject(sql, params, String.class);
+			String data = (String) readTemplate().queryForObject(sql, params, String.class);
 			logger.debug("[sql] " + getLogSql(sql, params) + "[1]");
 			if (StringTools.isEmpty(data)) {
 				data = "";
@@ -1155,10 +2472,6 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 		}
 	}
 
-	private static String capitalize(String name) {
-		return name.substring(0, 1).toUpperCase() + name.substring(1);
-	}
-
 	/**
 	 * 此方法用于Spring2.5自动扫描时注入数据源用。如果需要手动设置数据源时调用
 	 * {@link #setDataSource(DataSource)}方法。 如果数据源名称不为dataSource的话，请重写这个方法。
@@ -1172,6 +2485,251 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 		logger.debug("在" + this.getClass().getName() + ",dataSource被注入");
 	}
 
+	/**
+	 * 打开读写分离，查询在从库执行，增删改以及事务中的查询在主库(setDataS 注入的 DataSource)执行，见 ReplicaRouter
+	 * 
+	 * @param replicas
+	 *            从库
+	 * @param strategy
+	 *            ReplicaRouter.ROUND_ROBIN 或 ReplicaRouter.LEAST_LOADED
+	 * @param stickyMillis
+	 *            写操作之后当前线程的查询在主库执行的时间，用于读到自己刚写入的数据，0 表示不使用
+	 * @return
+	 */
+	public ReplicaRouter setReplicas(List<DataSource> replicas, int strategy, long stickyMillis) {
+		replicaRouter = new ReplicaRouter(replicas, strategy, stickyMillis);
+		logger.debug("在" + this.getClass().getName() + "," + replicas.size() + "个从库被注入");
+		return replicaRouter;
+	}
+
+	public void disableReplicas() {
+		replicaRouter = null;
+	}
+
+	/**
+	 * 读写分离，没有打开时返回null
+	 */
+	public ReplicaRouter getReplicaRouter() {
+		return replicaRouter;
+	}
+
+	/**
+	 * 在主库执行 action 中的查询，用于需要读到刚写入的数据的调用
+	 * 
+	 * @param action
+	 * @return action 的返回值
+	 */
+	public <V> V onPrimary(Callable<V> action) {
+		return ReplicaRouter.onPrimary(action);
+	}
+
+	/**
+	 * 查询使用的 JdbcTemplate，打开了读写分离且不在事务中时为从库的
+	 */
+	private JdbcTemplate readTemplate() {
+		ReplicaRouter.Replica replica = selectReplica();
+		return replica == null ? getJdbcTemplate() : replica.template;
+	}
+
+	/**
+	 * 游标查询使用的 DataSource，见 readTemplate
+	 */
+	private DataSource readDataSource() {
+		ReplicaRouter.Replica replica = selectReplica();
+		return replica == null ? getDataSource() : replica.dataSource;
+	}
+
+	private ReplicaRouter.Replica selectReplica() {
+		ReplicaRouter router = replicaRouter;
+		if (router == null || TransactionSynchronizationManager.isActualTransactionActive()) {
+			return null;
+		}
+		return router.select();
+	}
+
+	/**
+	 * 注册分表的Vo 类型，之后该类型的 add update delete get upsert 按Vo 中分表键的值选择表，见 ShardedTable
+	 * addList addListBulk upsertAll deleteAll getAll 按各Vo 所在的表分组执行；只有主键的 *ByKeys 无法确定表，抛出异常
+	 * 实现了 ITableName 的Vo 仍使用自己的表名
+	 * 
+	 * @param clazz
+	 * @param shards
+	 *            为null 时取消注册
+	 */
+	public void registerShards(Class<?> clazz, ShardedTable shards) {
+		if (shards == null) {
+			shardedTables.remove(clazz);
+		}
+		else {
+			shardedTables.put(clazz, shards);
+		}
+	}
+
+	/**
+	 * 类型的分表配置，没有注册时返回null
+	 */
+	public ShardedTable getShards(Class<?> clazz) {
+		return shardedTables.get(clazz);
+	}
+
+	/**
+	 * 在类型的所有分表上执行查询，合并结果
+	 * sql 中用 ShardedTable.TABLE 表示表名，如 "SELECT * FROM {table} WHERE status = ? ORDER BY createTime DESC LIMIT 20"
+	 * 有 ORDER BY 时 order 与之一致，各分表的结果按 order 归并；有 LIMIT n 时 limit 为 n，每个分表最多返回 n 行，归并后取前 n 行
+	 * 各分表的结果先全部读入内存再归并，不是从各分表的游标流式归并，结果较大时应在 sql 中加 LIMIT
+	 * 
+	 * @param clazz
+	 *            已通过 registerShards 注册
+	 * @param sql
+	 * @param params
+	 * @param order
+	 *            为null 时按分表的顺序连接
+	 * @param limit
+	 *            最多返回的行数，小于等于0 表示不限
+	 * @return
+	 */
+	public <T> List<T> queryShardsToList(final Class clazz, String sql, final Object[] params,
+			Comparator<? super T> order, int limit) {
+		List<List<T>> lists = scatter(requireShards(clazz), sql, new ShardQuery<List<T>>() {
+			@Override
+			public List<T> query(String shardSql) {
+				return queryToList(shardSql, params, clazz);
+			}
+		});
+		return ShardedTable.merge(lists, order, limit);
+	}
+
+	/**
+	 * 同 queryShardsToList，每行封装成Map
+	 */
+	public List<Map<String, Object>> queryShardsToListMap(Class<?> clazz, String sql, final Object[] params,
+			Comparator<? super Map<String, Object>> order, int limit) {
+		List<List<Map<String, Object>>> lists = scatter(requireShards(clazz), sql,
+				new ShardQuery<List<Map<String, Object>>>() {
+					@Override
+					public List<Map<String, Object>> query(String shardSql) {
+						return queryToListMap(shardSql, params);
+					}
+				});
+		return ShardedTable.merge(lists, order, limit);
+	}
+
+	/**
+	 * 在所有分表上执行返回单个整数的查询(COUNT SUM)，返回各分表的和
+	 * 与 getSingleLong 不同，任一分表的查询出错时抛出异常，不按0 计入
+	 */
+	public long getShardsSumLong(Class<?> clazz, String sql, final Object[] params) {
+		List<Long> values = scatter(requireShards(clazz), sql.trim(), new ShardQuery<Long>() {
+			@Override
+			public Long query(String shardSql) {
+				long ret = readTemplate().queryForLong(shardSql, params);
+				logger.debug("[sql] " + getLogSql(shardSql, params) + "[1]");
+				return ret;
+			}
+		});
+		long ret = 0;
+		for (Long value : values) {
+			ret += value;
+		}
+		return ret;
+	}
+
+	/**
+	 * 在所有分表上执行返回单个数值的查询(SUM)，返回各分表的和
+	 * 与 getSingleDouble 不同，任一分表的查询出错时抛出异常，不按0 计入；分表的结果为null(没有行的 SUM)时按0 计入
+	 */
+	public double getShardsSumDouble(Class<?> clazz, String sql, final Object[] params) {
+		List<Double> values = scatter(requireShards(clazz), sql.trim(), new ShardQuery<Double>() {
+			@Override
+			public Double query(String shardSql) {
+				Double d = (Double) readTemplate().queryForObject(shardSql, params, Double.class);
+				logger.debug("[sql] " + getLogSql(shardSql, params) + "[1]");
+				return d != null ? d : Double.valueOf(0D);
+			}
+		});
+		double ret = 0;
+		for (Double value : values) {
+			ret += value;
+		}
+		return ret;
+	}
+
+	private ShardedTable requireShards(Class<?> clazz) {
+		ShardedTable shards = shardedTables.get(clazz);
+		if (shards == null) {
+			throw new YzgRuntimeException(clazz.getName() + " 没有注册分表");
+		}
+		return shards;
+	}
+
+	/**
+	 * 一个分表上的查询
+	 */
+	private interface ShardQuery<R> {
+		R query(String shardSql);
+	}
+
+	/**
+	 * 在各分表上执行 query，结果按分表的顺序返回
+	 * 有线程池时并行执行；事务中在当前线程依次执行，使查询使用事务的连接
+	 * 当前线程在 onPrimary 中或处于写后读时，其它线程上的查询也在主库执行
+	 */
+	private <R> List<R> scatter(ShardedTable shards, String sql, final ShardQuery<R> query) {
+		List<String> tables = shards.getTableNames();
+		List<R> ret = new ArrayList<R>(tables.size());
+		ExecutorService executor = shards.getExecutor();
+		if (executor == null || tables.size() == 1 || TransactionSynchronizationManager.isActualTransactionActive()) {
+			for (String table : tables) {
+				ret.add(query.query(ShardedTable.sqlFor(sql, table)));
+			}
+			return ret;
+		}
+		ReplicaRouter router = replicaRouter;
+		final boolean pinned = router != null && router.isPinned();
+		List<Future<R>> futures = new ArrayList<Future<R>>(tables.size());
+		try {
+			for (String table : tables) {
+				final String shardSql = ShardedTable.sqlFor(sql, table);
+				futures.add(executor.submit(new Callable<R>() {
+					@Override
+					public R call() {
+						if (!pinned) {
+							return query.query(shardSql);
+						}
+						return ReplicaRouter.onPrimary(new Callable<R>() {
+							@Override
+							public R call() {
+								return query.query(shardSql);
+							}
+						});
+					}
+				}));
+			}
+			for (Future<R> future : futures) {
+				ret.add(future.get());
+			}
+			return ret;
+		}
+		catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new YzgRuntimeException(cause);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new YzgRuntimeException(ex);
+		}
+		finally {
+			if (ret.size() < futures.size() || futures.size() < tables.size()) {
+				for (Future<R> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+	}
+
 	/**
 	 * 判断指定类型是否被生成sql时所支持
 	 * 
@@ -1237,14 +2795,14 @@ public abstract class JdbcBaseDao extends JdbcDaoSupport {
 		return pk;
 	}
 
-	private String getEacapeFieldName(String fieldName) {
-		return "`" + fieldName + "`";
-	}
-	
-	private <T> String getTableName(T t) {
+	<T> String getTableName(T t) {
+		ShardedTable shards;
 		if (t instanceof ITableName) {
 			return ((ITableName) t).getTableName();
 		}
+		else if ((shards = shardedTables.get(t.getClass())) != null) {
+			return shards.getTableName(t);
+		}
 		else {
 			getTableNameProvider().setDaoClass(t.getClass());
 			return getTableNameProvider().getTableName();
@@ -0,0 +1,307 @@
+package com.yzg365.common.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 按键分页(keyset/seek)，通过 JdbcBaseDao.keysetPager keysetPagerMap 创建，用于批量任务遍历大表
+ * 记住上一页最后一行的键，下一页的查询为 SELECT * FROM (sql) _ks WHERE k > ? ORDER BY k LIMIT n，不使用 LIMIT offset, n
+ * 每页都从索引上的位置开始读取，遍历整个表的时间与行数成正比
+ *
+ * 说明：
+ * sql 为完整的查询，条件可以用 sqlCondBuilder 构造，不能包含 ORDER BY 和 LIMIT
+ * sql 作为派生表，键的条件在外层，不受 sql 中的 OR 子查询 GROUP BY 影响
+ * MySQL 5.7 起简单的派生表会合并到外层查询，键的条件仍可以使用索引；有 GROUP BY DISTINCT 等时每页先物化 sql 的结果
+ * 键的列应有索引且不为null，多个列时组合唯一，一般为主键或 (排序列, 主键)
+ * 键的列必须在查询结果中，按结果中的列名引用(o.id 取 id)，Vo 按列名或属性名读取，Map 按列的别名读取
+ * 多个列的条件展开为 (k1 > ? OR (k1 = ? AND k2 > ?))，MySQL 对行比较 (k1, k2) > (?, ?) 不一定使用索引
+ * 打开预取后，返回一页时在线程池中查询下一页，预取的查询不参与当前线程的事务
+ * 非线程安全，只能由一个线程遍历
+ *
+ * @param <T>
+ */
+public class KeysetPager<T> implements Iterable<List<T>> {
+
+	/** sql 作为派生表的别名 */
+	private static final String ALIAS = "_ks";
+
+	private final JdbcBaseDao dao;
+	private final String sql;
+	private final Object[] params;
+	/** 为null 时每行封装成Map */
+	private final Class<?> clazz;
+	private final int pageSize;
+	private final String[] keyColumns;
+	/** keyColumns 在结果中的名字，去掉了表的别名 */
+	private final String[] keyLabels;
+	/** 外层查询中引用键的列，_ks.`id` */
+	private final String[] keyRefs;
+	private boolean descending = false;
+	private ExecutorService executor;
+
+	/** 上一页最后一行的键，第一页之前为null */
+	private Object[] lastKey;
+	private boolean finished = false;
+	private Future<List<T>> prefetched;
+	private int pageCount = 0;
+	private long rowCount = 0;
+
+	KeysetPager(JdbcBaseDao dao, String sql, Object[] params, Class<?> clazz, int pageSize, String[] keyColumns) {
+		if (keyColumns == null || keyColumns.length == 0) {
+			throw new IllegalArgumentException("没有键的列");
+		}
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("pageSize: " + pageSize);
+		}
+		this.dao = dao;
+		this.sql = sql.trim();
+		this.params = params == null ? new Object[0] : params;
+		this.clazz = clazz;
+		this.pageSize = pageSize;
+		this.keyColumns = keyColumns.clone();
+		this.keyLabels = new String[keyColumns.length];
+		this.keyRefs = new String[keyColumns.length];
+		for (int i = 0; i < keyColumns.length; i++) {
+			String label = keyColumns[i].substring(keyColumns[i].lastIndexOf('.') + 1);
+			keyLabels[i] = label.replace("`", "");
+			keyRefs[i] = ALIAS + ".`" + keyLabels[i] + "`";
+		}
+	}
+
+	/**
+	 * 按键从大到小遍历，在第一页之前调用
+	 */
+	public KeysetPager<T> descending() {
+		this.descending = true;
+		return this;
+	}
+
+	/**
+	 * 从指定的键之后开始，用于中断后继续，在第一页之前调用
+	 *
+	 * @param key
+	 *            与 keyColumns 一一对应，一般为上次的 getLastKey
+	 */
+	public KeysetPager<T> startAfter(Object... key) {
+		if (key.length != keyColumns.length) {
+			throw new IllegalArgumentException("键的个数 " + key.length + " 与列数 " + keyColumns.length + " 不一致");
+		}
+		this.lastKey = key.clone();
+		return this;
+	}
+
+	/**
+	 * 在线程池中预取下一页，在第一页之前调用
+	 */
+	public KeysetPager<T> prefetch(ExecutorService executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * 下一页，没有时返回空列表
+	 */
+	public List<T> nextPage() {
+		if (finished) {
+			return Collections.emptyList();
+		}
+		List<T> page;
+		if (prefetched != null) {
+			page = await(prefetched);
+			prefetched = null;
+		}
+		else {
+			page = query(lastKey);
+		}
+		pageCount++;
+		rowCount += page.size();
+		if (page.size() < pageSize) {
+			finished = true;
+		}
+		if (!page.isEmpty()) {
+			lastKey = keyOf(page.get(page.size() - 1));
+		}
+		if (!finished && executor != null) {
+			final Object[] key = lastKey;
+			prefetched = executor.submit(new Callable<List<T>>() {
+				@Override
+				public List<T> call() {
+					return query(key);
+				}
+			});
+		}
+		return page;
+	}
+
+	/**
+	 * 是否已经读完
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * 最后返回的一行的键，还没有返回时为 startAfter 的键或null
+	 */
+	public Object[] getLastKey() {
+		return lastKey == null ? null : lastKey.clone();
+	}
+
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * 逐页遍历，每次 next 调用 nextPage，不返回空页
+	 */
+	@Override
+	public Iterator<List<T>> iterator() {
+		return new Iterator<List<T>>() {
+			private List<T> next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null && !finished) {
+					next = nextPage();
+				}
+				return next != null && !next.isEmpty();
+			}
+
+			@Override
+			public List<T> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				List<T> ret = next;
+				next = null;
+				return ret;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * 放弃预取的页，不再遍历时调用
+	 */
+	public void close() {
+		finished = true;
+		if (prefetched != null) {
+			prefetched.cancel(true);
+			prefetched = null;
+		}
+	}
+
+	private List<T> query(Object[] after) {
+		List<Object> paramList = new ArrayList<Object>(params.length + keyColumns.length * 2);
+		paramList.addAll(Arrays.asList(params));
+		StringBuilder builder = new StringBuilder(sql.length() + 64);
+		builder.append("SELECT * FROM (").append(sql).append(") ").append(ALIAS);
+		if (after != null) {
+			builder.append(" WHERE 1=1").append(seekCondition(after, paramList));
+		}
+		builder.append(" ORDER BY ");
+		for (int i = 0; i < keyRefs.length; i++) {
+			builder.append(i == 0 ? "" : ", ").append(keyRefs[i]).append(descending ? " DESC" : "");
+		}
+		builder.append(" LIMIT ").append(pageSize);
+		Object[] args = paramList.toArray();
+		if (clazz == null) {
+			return (List<T>) dao.queryToListMap(builder.toString(), args);
+		}
+		return dao.queryToList(builder.toString(), args, clazz);
+	}
+
+	/**
+	 * 键大于(降序时小于) after 的条件，以 " AND " 开头
+	 */
+	private String seekCondition(Object[] after, List<Object> paramList) {
+		String op = descending ? "<" : ">";
+		if (keyRefs.length == 1) {
+			return dao.sqlCondBuilder(keyRefs[0], op, after[0], paramList);
+		}
+		StringBuilder builder = new StringBuilder(" AND (");
+		for (int i = 0; i < keyRefs.length; i++) {
+			builder.append(i == 0 ? "" : " OR ").append(i == 0 ? "" : "(");
+			for (int j = 0; j < i; j++) {
+				builder.append(keyRefs[j]).append(" = ? AND ");
+				paramList.add(after[j]);
+			}
+			builder.append(keyRefs[i]).append(" ").append(op).append(" ?").append(i == 0 ? "" : ")");
+			paramList.add(after[i]);
+		}
+		return builder.append(") ").toString();
+	}
+
+	private Object[] keyOf(T row) {
+		Object[] key = new Object[keyColumns.length];
+		try {
+			if (row instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) row;
+				for (int i = 0; i < key.length; i++) {
+					key[i] = map.get(keyLabels[i]);
+				}
+			}
+			else {
+				EntityMeta meta = EntityMeta.of(row.getClass());
+				for (int i = 0; i < key.length; i++) {
+					EntityMeta.FieldMeta field = meta.getByColumn(keyLabels[i]);
+					if (field == null) {
+						field = meta.getByName(keyLabels[i]);
+					}
+					if (field == null) {
+						throw new YzgRuntimeException(row.getClass().getName() + " 没有键的列 " + keyColumns[i]);
+					}
+					key[i] = field.get(row);
+				}
+			}
+		}
+		catch (YzgRuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] == null) {
+				throw new YzgRuntimeException("键的列 " + keyColumns[i] + " 为null，不能用于按键分页");
+			}
+		}
+		return key;
+	}
+
+	private static <V> V await(Future<V> future) {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new YzgRuntimeException(cause);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new YzgRuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.yzg365.common.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 延迟加载的字段，用于很少读取的大字段(TEXT BLOB)
+ * com.yzg365.common.dao.JdbcBaseDao 的 get getAll 不查询此字段，Vo 实现 ILazyLoadable 时在第一次访问时查询，否则通过 JdbcBaseDao.loadLazy 加载
+ * 主键和@Key 字段上的注解无效
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Lazy {
+}
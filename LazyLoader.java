@@ -0,0 +1,65 @@
+package com.yzg365.common.dao;
+
+import java.util.BitSet;
+import java.util.Collections;
+
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 一个Vo 的 @Lazy 字段的加载器，记录查询时的表名和主键
+ * 每个字段只查询一次，查询到null 时也不再查询；字段已经有值时不查询
+ */
+public class LazyLoader {
+
+	private final JdbcBaseDao dao;
+	private final EntityMeta meta;
+	private final String tableName;
+	private final Object pk;
+	private final BitSet loaded = new BitSet();
+
+	LazyLoader(JdbcBaseDao dao, EntityMeta meta, String tableName, Object pk) {
+		this.dao = dao;
+		this.meta = meta;
+		this.tableName = tableName;
+		this.pk = pk;
+	}
+
+	/**
+	 * 加载一个 @Lazy 字段并通过 setter 写入 bean，已经加载过时直接返回
+	 *
+	 * @param bean
+	 * @param property
+	 *            字段名
+	 */
+	public void load(Object bean, String property) {
+		EntityMeta.FieldMeta field = meta.getByName(property);
+		if (field == null || !field.lazy) {
+			throw new YzgRuntimeException(meta.getEntityClass().getName() + " 没有 @Lazy 字段 " + property);
+		}
+		synchronized (this) {
+			if (loaded.get(field.index)) {
+				return;
+			}
+			try {
+				if (field.get(bean) != null) {
+					// 已经有值(如从缓存中的副本复制)
+					loaded.set(field.index);
+					return;
+				}
+			}
+			catch (Exception e) {
+				throw new YzgRuntimeException(e);
+			}
+			dao.loadLazyFields(bean, meta, tableName, pk, Collections.singletonList(field));
+			loaded.set(field.index);
+		}
+	}
+
+	/**
+	 * 是否已经加载
+	 */
+	public synchronized boolean isLoaded(String property) {
+		EntityMeta.FieldMeta field = meta.getByName(property);
+		return field != null && loaded.get(field.index);
+	}
+}
@@ -0,0 +1,53 @@
+package com.yzg365.common.dao;
+
+/**
+ * long -> double 的哈希表，见 LongKeyMap
+ */
+public class LongDoubleMap extends LongKeyMap {
+
+	private double[] values;
+
+	public LongDoubleMap() {
+		this(16);
+	}
+
+	public LongDoubleMap(int expectedSize) {
+		super(expectedSize);
+	}
+
+	@Override
+	void allocValues(int length) {
+		values = new double[length];
+	}
+
+	@Override
+	Object values() {
+		return values;
+	}
+
+	@Override
+	void moveValue(Object oldValues, int from, int to) {
+		values[to] = ((double[]) oldValues)[from];
+	}
+
+	public void put(long key, double value) {
+		// insertSlot 可能扩容，先取槽再访问 values
+		int slot = insertSlot(key);
+		values[slot] = value;
+	}
+
+	/**
+	 * @return 没有时返回 defaultValue
+	 */
+	public double get(long key, double defaultValue) {
+		int slot = slotOf(key);
+		return slot < 0 ? defaultValue : values[slot];
+	}
+
+	/**
+	 * @return 没有时返回0
+	 */
+	public double get(long key) {
+		return get(key, 0D);
+	}
+}
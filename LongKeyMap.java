@@ -0,0 +1,161 @@
+package com.yzg365.common.dao;
+
+/**
+ * 以 long 为键的开放寻址哈希表的基类，键和值都保存在基本类型数组中，不创建 Entry 和包装对象
+ * 线性探测，键为0 的槽表示空，键0 本身保存在值数组的最后一个位置(下标为 capacity)
+ * 不支持删除，用于 JdbcBaseDao.queryToLongLongMap 等一次加载的查找表；不是线程安全的，加载后只读时可以多线程共用
+ */
+public abstract class LongKeyMap {
+
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private long[] keys;
+	private int mask;
+	private int size;
+	private boolean hasZeroKey;
+	private int threshold;
+
+	/**
+	 * @param expectedSize
+	 *            预计的元素个数，放入这么多元素时不需要扩容
+	 */
+	LongKeyMap(int expectedSize) {
+		int capacity = capacityFor(Math.max(expectedSize, 4));
+		keys = new long[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * LOAD_FACTOR);
+		allocValues(capacity + 1);
+	}
+
+	private static int capacityFor(int expectedSize) {
+		long needed = (long) Math.ceil(expectedSize / (double) LOAD_FACTOR);
+		if (needed >= MAX_CAPACITY) {
+			return MAX_CAPACITY;
+		}
+		return Integer.highestOneBit((int) needed - 1) << 1;
+	}
+
+	/**
+	 * 分配新的值数组，长度为 capacity + 1
+	 */
+	abstract void allocValues(int length);
+
+	/**
+	 * 扩容时返回旧的值数组，随后调用 allocValues 分配新数组
+	 */
+	abstract Object values();
+
+	/**
+	 * 扩容时把旧值数组中的值移到新数组
+	 */
+	abstract void moveValue(Object oldValues, int from, int to);
+
+	private static int hash(long key) {
+		// murmur3 的 fmix64
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	/**
+	 * 键对应的槽，没有时返回 -1
+	 */
+	final int slotOf(long key) {
+		if (key == 0) {
+			return hasZeroKey ? keys.length : -1;
+		}
+		int slot = hash(key) & mask;
+		long k;
+		while ((k = keys[slot]) != 0) {
+			if (k == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * 键对应的槽，没有时插入键
+	 */
+	final int insertSlot(long key) {
+		if (key == 0) {
+			if (!hasZeroKey) {
+				hasZeroKey = true;
+				size++;
+			}
+			return keys.length;
+		}
+		int slot = hash(key) & mask;
+		long k;
+		while ((k = keys[slot]) != 0) {
+			if (k == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size >= threshold && keys.length < MAX_CAPACITY) {
+			rehash(keys.length << 1);
+			return insertSlot(key);
+		}
+		keys[slot] = key;
+		size++;
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Object oldValues = values();
+		keys = new long[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * LOAD_FACTOR);
+		allocValues(capacity + 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != 0) {
+				int slot = hash(key) & mask;
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				moveValue(oldValues, i, slot);
+			}
+		}
+		if (hasZeroKey) {
+			moveValue(oldValues, oldKeys.length, capacity);
+		}
+	}
+
+	public final boolean containsKey(long key) {
+		return slotOf(key) >= 0;
+	}
+
+	public final int size() {
+		return size;
+	}
+
+	public final boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * 所有的键，顺序不确定
+	 */
+	public final long[] keys() {
+		long[] ret = new long[size];
+		int n = 0;
+		if (hasZeroKey) {
+			ret[n++] = 0;
+		}
+		for (long key : keys) {
+			if (key != 0) {
+				ret[n++] = key;
+			}
+		}
+		return ret;
+	}
+}
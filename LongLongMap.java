@@ -0,0 +1,53 @@
+package com.yzg365.common.dao;
+
+/**
+ * long -> long 的哈希表，见 LongKeyMap
+ */
+public class LongLongMap extends LongKeyMap {
+
+	private long[] values;
+
+	public LongLongMap() {
+		this(16);
+	}
+
+	public LongLongMap(int expectedSize) {
+		super(expectedSize);
+	}
+
+	@Override
+	void allocValues(int length) {
+		values = new long[length];
+	}
+
+	@Override
+	Object values() {
+		return values;
+	}
+
+	@Override
+	void moveValue(Object oldValues, int from, int to) {
+		values[to] = ((long[]) oldValues)[from];
+	}
+
+	public void put(long key, long value) {
+		// insertSlot 可能扩容，先取槽再访问 values
+		int slot = insertSlot(key);
+		values[slot] = value;
+	}
+
+	/**
+	 * @return 没有时返回 defaultValue
+	 */
+	public long get(long key, long defaultValue) {
+		int slot = slotOf(key);
+		return slot < 0 ? defaultValue : values[slot];
+	}
+
+	/**
+	 * @return 没有时返回0
+	 */
+	public long get(long key) {
+		return get(key, 0L);
+	}
+}
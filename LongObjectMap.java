@@ -0,0 +1,47 @@
+package com.yzg365.common.dao;
+
+/**
+ * long -> V 的哈希表，见 LongKeyMap
+ */
+public class LongObjectMap<V> extends LongKeyMap {
+
+	private Object[] values;
+
+	public LongObjectMap() {
+		this(16);
+	}
+
+	public LongObjectMap(int expectedSize) {
+		super(expectedSize);
+	}
+
+	@Override
+	void allocValues(int length) {
+		values = new Object[length];
+	}
+
+	@Override
+	Object values() {
+		return values;
+	}
+
+	@Override
+	void moveValue(Object oldValues, int from, int to) {
+		values[to] = ((Object[]) oldValues)[from];
+	}
+
+	public void put(long key, V value) {
+		// insertSlot 可能扩容，先取槽再访问 values
+		int slot = insertSlot(key);
+		values[slot] = value;
+	}
+
+	/**
+	 * @return 没有时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int slot = slotOf(key);
+		return slot < 0 ? null : (V) values[slot];
+	}
+}
@@ -0,0 +1,288 @@
+package com.yzg365.common.dao;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 行转列的封装计划，用于 JdbcBaseDao.queryToFlatList / queryToFlatMapList
+ * propName 列的值作为属性名，propVal 列的值作为属性值，其它列直接对应属性，agreKey 相同的相邻行封装成一个对象
+ *
+ * 直接从 ResultSet 读取，一次遍历完成封装，不再经过 List<Map>
+ * 封装成Vo 时，计划按 (Vo类型, agreKey, 结果集的列) 缓存在 EntityMeta 中，每个 propName 只解析一次 setter
+ * 封装成Map 时，同一次查询的所有Map 共用一个 CompactRowMap.KeyIndex
+ */
+final class PivotPlan {
+
+	static final String PROP_NAME = "propName";
+	static final String PROP_VAL = "propVal";
+
+	/** 每个计划最多缓存的 propName 数 */
+	private static final int MAX_PIVOT_SLOTS = 4096;
+
+	/** 没有对应属性的 propName，忽略 */
+	private static final Slot NONE = new Slot(-1, null);
+
+	/** 封装成Map 时为null */
+	private final EntityMeta meta;
+	private final int keyColumn;
+	/** 没有 propName propVal 列时为 -1 */
+	private final int propNameColumn;
+	private final int propValColumn;
+	/** propName propVal 以外的列，从1开始 */
+	private final int[] columns;
+	private final String[] labels;
+	private final Slot[] slots;
+	/** propName 的值对应的属性，各次查询共用 */
+	private final ConcurrentMap<String, Slot> pivotSlots = new ConcurrentHashMap<String, Slot>();
+	/** 属性对应的 Slot，同一个属性(列或 propName)只有一个 index，在 pivotSlots 上同步 */
+	private final Map<PropertyWriter, Slot> writerSlots = new IdentityHashMap<PropertyWriter, Slot>();
+	private final AtomicInteger slotCount = new AtomicInteger();
+
+	private PivotPlan(EntityMeta meta, String[] allLabels, String agreKey) {
+		this.meta = meta;
+		int key = -1;
+		int name = -1;
+		int val = -1;
+		List<Integer> cols = new ArrayList<Integer>();
+		for (int i = 0; i < allLabels.length; i++) {
+			String label = allLabels[i];
+			if (label.equals(agreKey) && key < 0) {
+				key = i + 1;
+			}
+			if (PROP_NAME.equals(label)) {
+				name = i + 1;
+			}
+			else if (PROP_VAL.equals(label)) {
+				val = i + 1;
+			}
+			else {
+				cols.add(i + 1);
+			}
+		}
+		if (key < 0) {
+			throw new YzgRuntimeException("结果集中没有 agreKey 对应的列: " + agreKey);
+		}
+		this.keyColumn = key;
+		this.propNameColumn = name;
+		this.propValColumn = val;
+		this.columns = new int[cols.size()];
+		this.labels = new String[cols.size()];
+		this.slots = new Slot[cols.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = cols.get(i);
+			labels[i] = allLabels[columns[i] - 1];
+			slots[i] = writerSlot(meta == null ? null : meta.getWriterByColumn(labels[i]));
+		}
+	}
+
+	/**
+	 * 属性对应的 Slot，已有时返回原来的，使列和 propName 对应同一个属性时共用 filled 中的一位
+	 */
+	private Slot writerSlot(PropertyWriter writer) {
+		if (writer == null) {
+			return NONE;
+		}
+		Slot slot = writerSlots.get(writer);
+		if (slot == null) {
+			slot = new Slot(slotCount.getAndIncrement(), writer);
+			writerSlots.put(writer, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * 获取结果集对应的封装计划
+	 *
+	 * @param meta
+	 *            封装成Map 时为null
+	 * @param rsMetaData
+	 * @param agreKey
+	 * @return
+	 * @throws SQLException
+	 */
+	static PivotPlan forResultSet(EntityMeta meta, ResultSetMetaData rsMetaData, String agreKey) throws SQLException {
+		int cnt = rsMetaData.getColumnCount();
+		String[] labels = new String[cnt];
+		StringBuilder layout = new StringBuilder(agreKey).append('\u0002');
+		for (int i = 0; i < cnt; i++) {
+			labels[i] = rsMetaData.getColumnLabel(i + 1);
+			layout.append(labels[i]).append('\u0001');
+		}
+		if (meta == null) {
+			return new PivotPlan(null, labels, agreKey);
+		}
+		String key = layout.toString();
+		PivotPlan plan = meta.getPivotPlan(key);
+		if (plan == null) {
+			plan = new PivotPlan(meta, labels, agreKey);
+			meta.putPivotPlan(key, plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * propName 对应的属性，同一个属性始终得到同一个 index，与对应同一属性的列共用
+	 * 没有对应属性的 propName 共用 NONE；超过 MAX_PIVOT_SLOTS 后新出现的有对应属性的 propName 抛出异常
+	 */
+	private Slot pivotSlot(String propName) {
+		Slot slot = pivotSlots.get(propName);
+		if (slot != null) {
+			return slot;
+		}
+		PropertyWriter writer = meta.getWriterByColumn(propName);
+		if (writer == null) {
+			if (pivotSlots.size() < MAX_PIVOT_SLOTS) {
+				pivotSlots.putIfAbsent(propName, NONE);
+			}
+			return NONE;
+		}
+		synchronized (pivotSlots) {
+			slot = pivotSlots.get(propName);
+			if (slot == null) {
+				if (pivotSlots.size() >= MAX_PIVOT_SLOTS) {
+					throw new YzgRuntimeException(meta.getEntityClass().getName() + " 行转列的 propName 超过 "
+							+ MAX_PIVOT_SLOTS + " 种: " + propName);
+				}
+				slot = writerSlot(writer);
+				pivotSlots.put(propName, slot);
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * 开始一次封装，返回的对象记录封装过程中的状态，只能用于一个结果集
+	 */
+	Pivoter newPivoter() {
+		return new Pivoter();
+	}
+
+	/**
+	 * 封装状态，依次传入结果集的每一行，agreKey 变化时返回已经封装完成的对象
+	 */
+	final class Pivoter implements RowGrouper {
+		private final CompactRowMap.KeyIndex index;
+		/** 各列在 index 中的下标 */
+		private final int[] positions;
+		private Object current;
+		/** Vo 中已经赋值的属性 */
+		private final BitSet filled = new BitSet();
+		private Object lastKey;
+
+		Pivoter() {
+			if (meta == null) {
+				index = new CompactRowMap.KeyIndex(labels);
+				positions = new int[labels.length];
+				for (int i = 0; i < labels.length; i++) {
+					positions[i] = index.indexOf(labels[i]);
+				}
+			}
+			else {
+				index = null;
+				positions = null;
+			}
+		}
+
+		@Override
+		public Object row(ResultSet rs) throws SQLException {
+			Object key = rs.getObject(keyColumn);
+			Object done = null;
+			if (current == null || !(key == null ? lastKey == null : key.equals(lastKey))) {
+				done = current;
+				current = meta == null ? new CompactRowMap(index, index.size()) : meta.newInstance();
+				filled.clear();
+				lastKey = key;
+			}
+			if (meta == null) {
+				mapRow(rs, (CompactRowMap) current);
+			}
+			else {
+				beanRow(rs, current);
+			}
+			return done;
+		}
+
+		@Override
+		public Object finish() {
+			Object done = current;
+			current = null;
+			return done;
+		}
+
+		private void mapRow(ResultSet rs, CompactRowMap map) throws SQLException {
+			for (int i = 0; i < columns.length; i++) {
+				map.set(positions[i], rs.getObject(columns[i]));
+			}
+			if (propNameColumn > 0) {
+				String propName = rs.getString(propNameColumn);
+				if (propName != null) {
+					map.put(propName, propValColumn > 0 ? rs.getObject(propValColumn) : null);
+				}
+			}
+		}
+
+		/**
+		 * 只给还没有值的属性赋值，同一个Vo 中先出现的值优先
+		 */
+		private void beanRow(ResultSet rs, Object bean) throws SQLException {
+			try {
+				for (int i = 0; i < columns.length; i++) {
+					Slot slot = slots[i];
+					if (slot.writer == null || filled.get(slot.index)) {
+						continue;
+					}
+					Object value = slot.writer.read(rs, columns[i]);
+					if (value != null) {
+						slot.writer.write(bean, value);
+						filled.set(slot.index);
+					}
+				}
+				if (propNameColumn > 0) {
+					String propName = rs.getString(propNameColumn);
+					if (propName == null) {
+						return;
+					}
+					Slot slot = pivotSlot(propName);
+					if (slot.writer == null || filled.get(slot.index)) {
+						return;
+					}
+					Object value = propValColumn > 0 ? rs.getObject(propValColumn) : null;
+					if (value != null) {
+						slot.writer.write(bean, value);
+						filled.set(slot.index);
+					}
+				}
+			}
+			catch (SQLException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new YzgRuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * 一个属性，index 用于记录是否已经赋值；没有对应的可写属性时 writer 为null，该列忽略
+	 */
+	private static final class Slot {
+		final int index;
+		final PropertyWriter writer;
+
+		Slot(int index, PropertyWriter writer) {
+			this.index = index;
+			this.writer = writer;
+		}
+	}
+}
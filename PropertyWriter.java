@@ -0,0 +1,185 @@
+package com.yzg365.common.dao;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.beanutils.ConvertUtils;
+
+/**
+ * Vo 一个可写属性的描述，setter 和参数类型只解析一次
+ * 根据参数类型选择 ResultSet 的取值方法(getLong getInt getBigDecimal ...)，避免 getObject 之后再做类型转换
+ * 类型不匹配时使用 BeanUtils 的 ConvertUtils 转换，与 BeanUtils.setProperty 的行为一致
+ */
+final class PropertyWriter {
+
+	private static final int T_OBJECT = 0;
+	private static final int T_STRING = 1;
+	private static final int T_LONG = 2;
+	private static final int T_INT = 3;
+	private static final int T_SHORT = 4;
+	private static final int T_BYTE = 5;
+	private static final int T_DOUBLE = 6;
+	private static final int T_FLOAT = 7;
+	private static final int T_BOOLEAN = 8;
+	private static final int T_DECIMAL = 9;
+	private static final int T_TIMESTAMP = 10;
+	private static final int T_SQL_DATE = 11;
+	private static final int T_SQL_TIME = 12;
+	private static final int T_BYTES = 13;
+
+	final String name;
+	final Class<?> type;
+	private final Method setter;
+	private final int kind;
+
+	PropertyWriter(PropertyDescriptor descriptor) {
+		this.name = descriptor.getName();
+		this.type = descriptor.getPropertyType();
+		this.setter = descriptor.getWriteMethod();
+		this.setter.setAccessible(true);
+		this.kind = kindOf(type);
+	}
+
+	private static int kindOf(Class<?> type) {
+		if (type == String.class) {
+			return T_STRING;
+		}
+		if (type == Long.TYPE || type == Long.class) {
+			return T_LONG;
+		}
+		if (type == Integer.TYPE || type == Integer.class) {
+			return T_INT;
+		}
+		if (type == Short.TYPE || type == Short.class) {
+			return T_SHORT;
+		}
+		if (type == Byte.TYPE || type == Byte.class) {
+			return T_BYTE;
+		}
+		if (type == Double.TYPE || type == Double.class) {
+			return T_DOUBLE;
+		}
+		if (type == Float.TYPE || type == Float.class) {
+			return T_FLOAT;
+		}
+		if (type == Boolean.TYPE || type == Boolean.class) {
+			return T_BOOLEAN;
+		}
+		if (type == BigDecimal.class) {
+			return T_DECIMAL;
+		}
+		// java.util.Date 字段直接使用 Timestamp(Date 的子类)
+		if (type == java.util.Date.class || type == java.sql.Timestamp.class) {
+			return T_TIMESTAMP;
+		}
+		if (type == java.sql.Date.class) {
+			return T_SQL_DATE;
+		}
+		if (type == java.sql.Time.class) {
+			return T_SQL_TIME;
+		}
+		if (type == byte[].class) {
+			return T_BYTES;
+		}
+		return T_OBJECT;
+	}
+
+	/**
+	 * 按属性类型读取列的值，数据库中为NULL时返回null
+	 *
+	 * @param rs
+	 * @param index
+	 *            列下标，从1开始
+	 * @return
+	 * @throws SQLException
+	 */
+	Object read(ResultSet rs, int index) throws SQLException {
+		Object value;
+		switch (kind) {
+		case T_STRING:
+			return rs.getString(index);
+		case T_LONG:
+			value = rs.getLong(index);
+			break;
+		case T_INT:
+			value = rs.getInt(index);
+			break;
+		case T_SHORT:
+			value = rs.getShort(index);
+			break;
+		case T_BYTE:
+			value = rs.getByte(index);
+			break;
+		case T_DOUBLE:
+			value = rs.getDouble(index);
+			break;
+		case T_FLOAT:
+			value = rs.getFloat(index);
+			break;
+		case T_BOOLEAN:
+			value = rs.getBoolean(index);
+			break;
+		case T_DECIMAL:
+			return rs.getBigDecimal(index);
+		case T_TIMESTAMP:
+			return rs.getTimestamp(index);
+		case T_SQL_DATE:
+			return rs.getDate(index);
+		case T_SQL_TIME:
+			return rs.getTime(index);
+		case T_BYTES:
+			return rs.getBytes(index);
+		default:
+			return rs.getObject(index);
+		}
+		return rs.wasNull() ? null : value;
+	}
+
+	/**
+	 * 调用setter赋值，null 不处理
+	 *
+	 * @param bean
+	 * @param value
+	 * @throws Exception
+	 */
+	void write(Object bean, Object value) throws Exception {
+		if (value == null) {
+			return;
+		}
+		setter.invoke(bean, convert(value));
+	}
+
+	/**
+	 * 将值转换为属性的类型，已经是该类型时直接返回
+	 */
+	Object convert(Object value) {
+		if (value == null || type.isInstance(value) || (type.isPrimitive() && kind != T_OBJECT && isBoxOf(value))) {
+			return value;
+		}
+		return ConvertUtils.convert(value, type);
+	}
+
+	private boolean isBoxOf(Object value) {
+		switch (kind) {
+		case T_LONG:
+			return value instanceof Long;
+		case T_INT:
+			return value instanceof Integer;
+		case T_SHORT:
+			return value instanceof Short;
+		case T_BYTE:
+			return value instanceof Byte;
+		case T_DOUBLE:
+			return value instanceof Double;
+		case T_FLOAT:
+			return value instanceof Float;
+		case T_BOOLEAN:
+			return value instanceof Boolean;
+		default:
+			return false;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package com.yzg365.common.dao;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 查询结果缓存，按 (结果类型, sql, 参数) 缓存，通过 JdbcBaseDao.enableQueryCache 打开
+ * 最多 maxSize 条，按最近最少使用淘汰，超过 ttl 的条目视为失效
+ *
+ * 每个条目记录sql 读取的表(SqlTables.read)及查询开始时各表的版本号
+ * 通过 JdbcBaseDao 对某张表的写操作增加该表的版本号，读取了该表的条目随之失效
+ * 无法确定写入哪张表时增加全局版本号，所有条目失效；无法确定读取哪些表的查询不缓存
+ *
+ * 缓存的结果是不可修改的，命中时 JdbcBaseDao 返回可修改的副本(列表 Map 浅复制，Vo 列表逐个复制Vo)，调用方的修改不影响缓存
+ */
+public class QueryCache {
+
+	/** get 没有命中时的返回值，用于区分缓存的null */
+	static final Object MISS = new Object();
+
+	private static final Object NULL = new Object();
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LinkedHashMap<Key, Entry> entries;
+	private final Map<String, Long> versions = new HashMap<String, Long>();
+	private long globalVersion = 0;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong invalidationCount = new AtomicLong();
+
+	/**
+	 * @param maxSize
+	 *            最多缓存的条目数
+	 * @param ttlMillis
+	 *            条目的有效时间，小于等于0 表示不过期
+	 */
+	QueryCache(final int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() > QueryCache.this.maxSize) {
+					evictionCount.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * 开始一次查询：命中时 Lookup.value 为缓存的结果，否则记录各表当前的版本号，查询完成后调用 put
+	 *
+	 * @param kind
+	 *            结果的类型，同一个sql 通过不同的方法查询时分别缓存
+	 * @param sql
+	 * @param params
+	 * @return
+	 */
+	Lookup lookup(Object kind, String sql, Object[] params) {
+		String[] tables = SqlTables.read(sql);
+		Key key = new Key(kind, sql, params);
+		if (tables.length == 0) {
+			return new Lookup(key, null, null, MISS);
+		}
+		Object value = MISS;
+		long[] current;
+		synchronized (this) {
+			current = versions(tables);
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (!Arrays.equals(entry.versions, current)
+						|| (ttlMillis > 0 && System.currentTimeMillis() - entry.createTime > ttlMillis)) {
+					entries.remove(key);
+				}
+				else {
+					value = entry.value == NULL ? null : entry.value;
+				}
+			}
+		}
+		if (value == MISS) {
+			missCount.incrementAndGet();
+		}
+		else {
+			hitCount.incrementAndGet();
+		}
+		return new Lookup(key, tables, current, value);
+	}
+
+	/**
+	 * 缓存查询结果，查询期间相关的表有写操作时不缓存
+	 *
+	 * @param lookup
+	 * @param value
+	 *            不可修改的结果
+	 */
+	void put(Lookup lookup, Object value) {
+		if (lookup.tables == null) {
+			return;
+		}
+		synchronized (this) {
+			if (!Arrays.equals(lookup.versions, versions(lookup.tables))) {
+				return;
+			}
+			entries.put(lookup.key, new Entry(value == null ? NULL : value, lookup.versions, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * 最后一个元素为全局版本号
+	 */
+	private long[] versions(String[] tables) {
+		long[] ret = new long[tables.length + 1];
+		for (int i = 0; i < tables.length; i++) {
+			Long version = versions.get(tables[i]);
+			ret[i] = version == null ? 0L : version.longValue();
+		}
+		ret[tables.length] = globalVersion;
+		return ret;
+	}
+
+	/**
+	 * 表有写操作，使读取了该表的条目失效
+	 *
+	 * @param table
+	 *            表名，使用 SqlTables.normalize 处理
+	 */
+	synchronized void invalidate(String table) {
+		String name = SqlTables.normalize(table);
+		Long version = versions.get(name);
+		versions.put(name, version == null ? 1L : version.longValue() + 1);
+		invalidationCount.incrementAndGet();
+	}
+
+	/**
+	 * 使所有条目失效
+	 */
+	public synchronized void invalidateAll() {
+		globalVersion++;
+		invalidationCount.incrementAndGet();
+	}
+
+	/**
+	 * 清空缓存
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * 因超过 maxSize 被淘汰的条目数
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * 写操作导致失效的次数
+	 */
+	public long getInvalidationCount() {
+		return invalidationCount.get();
+	}
+
+	public double getHitRate() {
+		long hit = hitCount.get();
+		long total = hit + missCount.get();
+		return total == 0 ? 0D : (double) hit / total;
+	}
+
+	@Override
+	public String toString() {
+		return "QueryCache[size=" + size() + " hit=" + getHitCount() + " miss=" + getMissCount() + " eviction="
+				+ getEvictionCount() + " invalidation=" + getInvalidationCount() + "]";
+	}
+
+	/**
+	 * 一次查询的缓存状态
+	 */
+	static final class Lookup {
+		private final Key key;
+		/** 为null 时不缓存 */
+		private final String[] tables;
+		private final long[] versions;
+		/** 命中时为缓存的结果，否则为 MISS */
+		final Object value;
+
+		Lookup(Key key, String[] tables, long[] versions, Object value) {
+			this.key = key;
+			this.tables = tables;
+			this.versions = versions;
+			this.value = value;
+		}
+
+		boolean isHit() {
+			return value != MISS;
+		}
+
+		/**
+		 * 可以命中但不放入缓存的 Lookup
+		 */
+		Lookup readOnly() {
+			return new Lookup(key, null, null, value);
+		}
+	}
+
+	private static final class Entry {
+		final Object value;
+		final long[] versions;
+		final long createTime;
+
+		Entry(Object value, long[] versions, long createTime) {
+			this.value = value;
+			this.versions = versions;
+			this.createTime = createTime;
+		}
+	}
+
+	static final class Key {
+		private final Object kind;
+		private final String sql;
+		private final Object[] params;
+		private final int hash;
+
+		Key(Object kind, String sql, Object[] params) {
+			this.kind = kind;
+			this.sql = sql;
+			this.params = params == null ? new Object[0] : params.clone();
+			this.hash = (kind.hashCode() * 31 + sql.hashCode()) * 31 + Arrays.hashCode(this.params);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && kind.equals(other.kind) && sql.equals(other.sql)
+					&& Arrays.equals(params, other.params);
+		}
+	}
+}
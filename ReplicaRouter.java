@@ -0,0 +1,262 @@
+package com.yzg365.common.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 读写分离，通过 JdbcBaseDao.setReplicas 打开
+ * JdbcBaseDao 的查询方法(queryTo* get getAll getSingle* cursor forEach)从从库中选择一个执行，增删改始终在主库执行
+ *
+ * 以下情况查询在主库执行：
+ * 当前线程有事务
+ * 在 onPrimary 中执行的查询，用于需要读到自己刚写入的数据的调用
+ * 当前线程最近 stickyMillis 毫秒内通过 JdbcBaseDao 执行过写操作
+ *
+ * 选择从库的方式：ROUND_ROBIN 依次轮流，LEAST_LOADED 当前打开的连接数最少的
+ *
+ * 与缓存和合并的关系：
+ * 在主库执行的查询(onPrimary 写后读)不使用查询缓存 get 的缓存，也不与其它线程的查询合并
+ * 任一线程写操作之后 stickyMillis 毫秒内的查询结果不放入缓存，stickyMillis 同时作为从库的同步延迟
+ */
+public class ReplicaRouter {
+
+	public static final int ROUND_ROBIN = 0;
+	public static final int LEAST_LOADED = 1;
+
+	/** onPrimary 的嵌套层数 */
+	private static final ThreadLocal<int[]> PRIMARY_DEPTH = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	/** 当前线程最后一次写操作的时间，不同的 ReplicaRouter 共用 */
+	private static final ThreadLocal<long[]> LAST_WRITE = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	private final Replica[] replicas;
+	private final int strategy;
+	private final long stickyMillis;
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicLong primaryReadCount = new AtomicLong();
+	/** 所有线程中最后一次写操作的时间，用于判断从库的结果能否放入缓存 */
+	private volatile long lastWrite = 0;
+
+	/**
+	 * @param dataSources
+	 *            从库
+	 * @param strategy
+	 *            ROUND_ROBIN LEAST_LOADED
+	 * @param stickyMillis
+	 *            写操作之后当前线程的查询在主库执行的时间，0 表示不使用
+	 */
+	ReplicaRouter(List<DataSource> dataSources, int strategy, long stickyMillis) {
+		if (dataSources == null || dataSources.isEmpty()) {
+			throw new YzgRuntimeException("没有从库");
+		}
+		if (strategy != ROUND_ROBIN && strategy != LEAST_LOADED) {
+			throw new IllegalArgumentException("strategy: " + strategy);
+		}
+		this.replicas = new Replica[dataSources.size()];
+		for (int i = 0; i < replicas.length; i++) {
+			replicas[i] = new Replica(dataSources.get(i));
+		}
+		this.strategy = strategy;
+		this.stickyMillis = stickyMillis;
+	}
+
+	/**
+	 * 当前查询使用的从库，应在主库执行时返回null
+	 */
+	Replica select() {
+		if (isPinned()) {
+			primaryReadCount.incrementAndGet();
+			return null;
+		}
+		Replica replica;
+		if (strategy == ROUND_ROBIN || replicas.length == 1) {
+			replica = replicas[(next.getAndIncrement() & Integer.MAX_VALUE) % replicas.length];
+		}
+		else {
+			// 从轮流的位置开始找，连接数相同时分散到各个从库
+			int start = (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+			replica = replicas[start];
+			for (int i = 1; i < replicas.length && replica.active.get() > 0; i++) {
+				Replica r = replicas[(start + i) % replicas.length];
+				if (r.active.get() < replica.active.get()) {
+					replica = r;
+				}
+			}
+		}
+		replica.readCount.incrementAndGet();
+		return replica;
+	}
+
+	/**
+	 * 当前线程的查询是否应在主库执行(onPrimary 中或写后读)，不计数
+	 * 用于把当前线程的状态带到执行查询的其它线程
+	 */
+	boolean isPinned() {
+		return PRIMARY_DEPTH.get()[0] > 0
+				|| (stickyMillis > 0 && System.currentTimeMillis() - LAST_WRITE.get()[0] < stickyMillis);
+	}
+
+	/**
+	 * 当前线程执行了写操作
+	 */
+	void markWrite() {
+		if (stickyMillis > 0) {
+			long now = System.currentTimeMillis();
+			LAST_WRITE.get()[0] = now;
+			lastWrite = now;
+		}
+	}
+
+	/**
+	 * 任一线程最近 stickyMillis 毫秒内执行过写操作，从库可能还没有同步，查询结果不放入缓存
+	 */
+	boolean isRecentWrite() {
+		return stickyMillis > 0 && System.currentTimeMillis() - lastWrite < stickyMillis;
+	}
+
+	/**
+	 * 在主库执行 action 中的所有查询
+	 */
+	static <V> V onPrimary(Callable<V> action) {
+		int[] depth = PRIMARY_DEPTH.get();
+		depth[0]++;
+		try {
+			return action.call();
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+		finally {
+			depth[0]--;
+		}
+	}
+
+	public int getReplicaCount() {
+		return replicas.length;
+	}
+
+	/**
+	 * 第 i 个从库执行的查询数
+	 */
+	public long getReadCount(int i) {
+		return replicas[i].readCount.get();
+	}
+
+	/**
+	 * 第 i 个从库当前打开的连接数
+	 */
+	public int getActiveCount(int i) {
+		return replicas[i].active.get();
+	}
+
+	/**
+	 * 因 onPrimary 或写后读而在主库执行的查询数，不包括事务中的查询
+	 */
+	public long getPrimaryReadCount() {
+		return primaryReadCount.get();
+	}
+
+	public int getStrategy() {
+		return strategy;
+	}
+
+	public long getStickyMillis() {
+		return stickyMillis;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("ReplicaRouter[primary=").append(getPrimaryReadCount());
+		for (int i = 0; i < replicas.length; i++) {
+			builder.append(" replica").append(i).append("=").append(getReadCount(i)).append("/")
+					.append(getActiveCount(i));
+		}
+		return builder.append("]").toString();
+	}
+
+	/**
+	 * 一个从库，DataSource 经过包装，记录打开的连接数
+	 */
+	static final class Replica {
+		final DataSource dataSource;
+		final JdbcTemplate template;
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicLong readCount = new AtomicLong();
+
+		Replica(DataSource target) {
+			this.dataSource = (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+					new Class<?>[] { DataSource.class }, new CountingHandler(target, active, false));
+			this.template = new JdbcTemplate(dataSource);
+		}
+	}
+
+	/**
+	 * DataSource.getConnection 时计数加一，Connection.close 时减一
+	 */
+	private static final class CountingHandler implements InvocationHandler {
+		private final Object target;
+		private final AtomicInteger active;
+		private final boolean connection;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		CountingHandler(Object target, AtomicInteger active, boolean connection) {
+			this.target = target;
+			this.active = active;
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("equals".equals(name) && args != null && args.length == 1) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name) && args == null) {
+				return System.identityHashCode(proxy);
+			}
+			if (connection && "close".equals(name) && closed.compareAndSet(false, true)) {
+				active.decrementAndGet();
+			}
+			Object ret;
+			try {
+				ret = method.invoke(target, args);
+			}
+			catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+			if (!connection && "getConnection".equals(name)) {
+				active.incrementAndGet();
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+						new CountingHandler(ret, active, true));
+			}
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.yzg365.common.dao;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+
+/**
+ * 查询结果的游标，遍历时才逐行封装，不会把整个结果集放到内存中，用于导出或处理大表
+ * 持有数据库连接直到遍历结束或调用 close，使用完必须关闭，建议放在 finally 中
+ * 在 Spring 事务中使用事务的连接，close 时由 DataSourceUtils 决定是否真正释放
+ *
+ * 非线程安全，只能由一个线程遍历
+ *
+ * @param <T>
+ */
+public class ResultCursor<T> implements Iterator<T>, Closeable {
+
+	private final String sql;
+	private final DataSource dataSource;
+	private final SQLExceptionTranslator translator;
+	private final RowMapper<T> rowMapper;
+	private Connection con;
+	private PreparedStatement ps;
+	private ResultSet rs;
+	private int rowNum = 0;
+	/** 是否已经调用 rs.next() 但还没有被 next() 取走 */
+	private boolean fetched = false;
+	private boolean hasNext = false;
+	private boolean closed = false;
+
+	private ResultCursor(String sql, DataSource dataSource, SQLExceptionTranslator translator, RowMapper<T> rowMapper) {
+		this.sql = sql;
+		this.dataSource = dataSource;
+		this.translator = translator;
+		this.rowMapper = rowMapper;
+	}
+
+	/**
+	 * 执行查询并返回游标
+	 *
+	 * @param dataSource
+	 * @param translator
+	 * @param sql
+	 * @param params
+	 * @param fetchSize
+	 *            每次从数据库读取的行数，0 表示使用驱动的默认值；MySQL 需要 Integer.MIN_VALUE 才会逐行读取
+	 * @param rowMapper
+	 * @return
+	 */
+	static <T> ResultCursor<T> open(DataSource dataSource, SQLExceptionTranslator translator, String sql,
+			Object[] params, int fetchSize, RowMapper<T> rowMapper) {
+		ResultCursor<T> cursor = new ResultCursor<T>(sql, dataSource, translator, rowMapper);
+		try {
+			cursor.con = DataSourceUtils.getConnection(dataSource);
+			cursor.ps = cursor.con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			if (fetchSize != 0) {
+				cursor.ps.setFetchSize(fetchSize);
+			}
+			if (params != null) {
+				for (int i = 0; i < params.length; i++) {
+					StatementCreatorUtils.setParameterValue(cursor.ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, params[i]);
+				}
+			}
+			cursor.rs = cursor.ps.executeQuery();
+			return cursor;
+		}
+		catch (SQLException e) {
+			cursor.close();
+			throw translator.translate("ResultCursor", sql, e);
+		}
+		catch (RuntimeException e) {
+			cursor.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		if (!fetched) {
+			try {
+				hasNext = rs.next();
+			}
+			catch (SQLException e) {
+				close();
+				throw translator.translate("ResultCursor", sql, e);
+			}
+			fetched = true;
+			// 遍历结束自动释放连接
+			if (!hasNext) {
+				close();
+			}
+		}
+		return hasNext;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		fetched = false;
+		try {
+			return rowMapper.mapRow(rs, rowNum++);
+		}
+		catch (SQLException e) {
+			close();
+			throw translator.translate("ResultCursor", sql, e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * 已经读取的行数
+	 */
+	public int getRowCount() {
+		return rowNum;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * 关闭结果集并释放连接，可以重复调用
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		hasNext = false;
+		JdbcUtils.closeResultSet(rs);
+		JdbcUtils.closeStatement(ps);
+		DataSourceUtils.releaseConnection(con, dataSource);
+		rs = null;
+		ps = null;
+		con = null;
+	}
+}
@@ -0,0 +1,25 @@
+package com.yzg365.common.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 将结果集中相邻的多行封装成一个对象，如一对多(AggregatePlan)和行转列(PivotPlan)
+ * 依次传入每一行，对象的所有行都读取完后返回该对象
+ */
+interface RowGrouper {
+
+	/**
+	 * 处理当前行
+	 *
+	 * @param rs
+	 * @return 当前行开始了一个新的对象时返回上一个对象，否则返回null
+	 * @throws SQLException
+	 */
+	Object row(ResultSet rs) throws SQLException;
+
+	/**
+	 * 结果集结束，返回最后一个对象，没有数据时返回null
+	 */
+	Object finish();
+}
@@ -0,0 +1,17 @@
+package com.yzg365.common.dao;
+
+/**
+ * 逐行处理查询结果的回调，配合 JdbcBaseDao 的 forEach 系列方法使用
+ *
+ * @param <T>
+ */
+public interface RowProcessor<T> {
+
+	/**
+	 * 处理一行
+	 *
+	 * @param row
+	 * @return false 时停止遍历并释放连接
+	 */
+	boolean process(T row);
+}
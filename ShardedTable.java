@@ -0,0 +1,129 @@
+package com.yzg365.common.dao;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 一个Vo 类型的分表配置，通过 JdbcBaseDao.registerShards 注册
+ * add update delete get upsert 以及批量的 addList addListBulk upsertAll deleteAll getAll 按Vo 中分表键字段的值选择表；没有分表键的查询在所有分表上执行，见 JdbcBaseDao.queryShardsToList
+ * 查询的sql 中用 TABLE 表示表名，如 "SELECT * FROM {table} WHERE status = ? ORDER BY createTime DESC LIMIT 20"
+ */
+public class ShardedTable {
+
+	/** sql 中表名的占位 */
+	public static final String TABLE = "{table}";
+
+	private final IShardStrategy strategy;
+	private final String shardKey;
+	private final ExecutorService executor;
+
+	/**
+	 * @param strategy
+	 * @param shardKey
+	 *            分表键的字段名
+	 * @param executor
+	 *            各分表的查询并行执行的线程池，大小决定了同时占用的连接数；为null 时在当前线程中依次执行
+	 */
+	public ShardedTable(IShardStrategy strategy, String shardKey, ExecutorService executor) {
+		this.strategy = strategy;
+		this.shardKey = shardKey;
+		this.executor = executor;
+	}
+
+	/**
+	 * Vo 所在的表
+	 */
+	String getTableName(Object bean) {
+		EntityMeta.FieldMeta field = EntityMeta.of(bean.getClass()).getByName(shardKey);
+		if (field == null) {
+			throw new YzgRuntimeException(bean.getClass().getName() + " 没有分表键字段 " + shardKey);
+		}
+		try {
+			return strategy.getTableName(field.get(bean));
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+	}
+
+	List<String> getTableNames() {
+		return strategy.getTableNames();
+	}
+
+	/**
+	 * sql 在分表 table 上执行时的文本
+	 */
+	static String sqlFor(String sql, String table) {
+		return sql.replace(TABLE, table);
+	}
+
+	/**
+	 * 合并各分表的结果
+	 * 在已读入内存的各分表结果上做 k 路归并，不从各分表的游标流式读取，内存占用为各分表结果之和
+	 *
+	 * @param lists
+	 *            各分表的结果，order 不为null 时每个都已按 order 排序
+	 * @param order
+	 *            为null 时按分表的顺序连接
+	 * @param limit
+	 *            最多返回的行数，小于等于0 表示不限
+	 */
+	static <T> List<T> merge(final List<List<T>> lists, final Comparator<? super T> order, int limit) {
+		int total = 0;
+		for (List<T> list : lists) {
+			total += list.size();
+		}
+		int size = limit > 0 ? Math.min(limit, total) : total;
+		List<T> ret = new ArrayList<T>(size);
+		if (order == null) {
+			for (List<T> list : lists) {
+				for (int i = 0; i < list.size() && ret.size() < size; i++) {
+					ret.add(list.get(i));
+				}
+			}
+			return ret;
+		}
+		// k 路归并，队列中为 {分表下标, 行下标}，每个分表一个
+		PriorityQueue<int[]> heads = new PriorityQueue<int[]>(Math.max(1, lists.size()), new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				int c = order.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1]));
+				return c != 0 ? c : a[0] - b[0];
+			}
+		});
+		for (int i = 0; i < lists.size(); i++) {
+			if (!lists.get(i).isEmpty()) {
+				heads.add(new int[] { i, 0 });
+			}
+		}
+		while (ret.size() < size) {
+			int[] head = heads.poll();
+			List<T> list = lists.get(head[0]);
+			ret.add(list.get(head[1]));
+			if (++head[1] < list.size()) {
+				heads.add(head);
+			}
+		}
+		return ret;
+	}
+
+	public IShardStrategy getStrategy() {
+		return strategy;
+	}
+
+	public String getShardKey() {
+		return shardKey;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+}
@@ -0,0 +1,191 @@
+package com.yzg365.common.dao;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 相同查询的合并，通过 JdbcBaseDao.enableRequestCoalescing 打开
+ * 同一时刻 (结果类型, sql, 参数) 相同的多个查询只有第一个访问数据库，其余的等待并共用它的结果
+ * 用于缓存失效或热点数据集中访问时，避免同一个查询同时占用多个连接
+ *
+ * 结果可修改时(List Vo)，等待的调用方各自得到一份副本，执行查询的调用方得到原结果
+ * 执行中抛出的异常(包括 Error)同样传给所有等待的调用方，复制结果失败时等待的调用方得到复制时的异常
+ * 等待的调用方被中断时抛出 YzgRuntimeException 并保留中断状态，不影响执行查询的调用方
+ */
+public class SingleFlight {
+
+	private final ConcurrentMap<QueryCache.Key, Call> calls = new ConcurrentHashMap<QueryCache.Key, Call>();
+
+	private final AtomicLong executionCount = new AtomicLong();
+	private final AtomicLong collapsedCount = new AtomicLong();
+
+	SingleFlight() {
+	}
+
+	/**
+	 * 复制共用的结果
+	 */
+	interface Copier<V> {
+		V copy(V value);
+	}
+
+	/**
+	 * 执行查询，已有相同的查询在执行时等待它的结果
+	 *
+	 * @param kind
+	 *            结果的类型，同一个sql 通过不同的方法查询时分别合并
+	 * @param sql
+	 * @param params
+	 * @param loader
+	 *            实际的查询
+	 * @param copier
+	 *            结果不可修改时为null，等待的调用方直接共用结果
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	<V> V execute(Object kind, String sql, Object[] params, Callable<V> loader, Copier<V> copier) {
+		QueryCache.Key key = new QueryCache.Key(kind, sql, params);
+		Call call = new Call();
+		while (true) {
+			Call existing = calls.putIfAbsent(key, call);
+			if (existing == null) {
+				break;
+			}
+			if (existing.join()) {
+				collapsedCount.incrementAndGet();
+				V value = (V) existing.await();
+				return copier == null || value == null ? value : copier.copy(value);
+			}
+			// existing 已经结束，还没有从 calls 中移除
+			calls.remove(key, existing);
+		}
+		executionCount.incrementAndGet();
+		V value = null;
+		Throwable error = null;
+		try {
+			value = loader.call();
+			return value;
+		}
+		catch (RuntimeException e) {
+			error = e;
+			throw e;
+		}
+		catch (Error e) {
+			error = e;
+			throw e;
+		}
+		catch (Exception e) {
+			YzgRuntimeException ex = new YzgRuntimeException(e);
+			error = ex;
+			throw ex;
+		}
+		finally {
+			calls.remove(key, call);
+			Object shared = null;
+			try {
+				if (call.close() && error == null && copier != null && value != null) {
+					// 有等待的调用方时保存一份副本，避免调用方修改原结果时其它调用方正在复制
+					shared = copier.copy(value);
+				}
+				else if (error == null) {
+					shared = value;
+				}
+			}
+			catch (Throwable e) {
+				error = e;
+			}
+			finally {
+				// 无论复制是否成功都要唤醒等待的调用方
+				call.set(shared, error);
+			}
+		}
+	}
+
+	/**
+	 * 实际访问数据库的次数
+	 */
+	public long getExecutionCount() {
+		return executionCount.get();
+	}
+
+	/**
+	 * 被合并(没有访问数据库，等待其它调用结果)的次数
+	 */
+	public long getCollapsedCount() {
+		return collapsedCount.get();
+	}
+
+	/**
+	 * 正在执行的查询数
+	 */
+	public int getInFlightCount() {
+		return calls.size();
+	}
+
+	@Override
+	public String toString() {
+		return "SingleFlight[execution=" + getExecutionCount() + " collapsed=" + getCollapsedCount() + " inFlight="
+				+ getInFlightCount() + "]";
+	}
+
+	/**
+	 * 一次执行中的查询
+	 */
+	private static final class Call {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private int waiters = 0;
+		private boolean closed = false;
+		private Object value;
+		private Throwable error;
+
+		/**
+		 * 加入等待，查询已经结束时返回false
+		 */
+		synchronized boolean join() {
+			if (closed) {
+				return false;
+			}
+			waiters++;
+			return true;
+		}
+
+		/**
+		 * 结束等待的加入，返回是否有等待的调用方
+		 */
+		synchronized boolean close() {
+			closed = true;
+			return waiters > 0;
+		}
+
+		void set(Object value, Throwable error) {
+			this.value = value;
+			this.error = error;
+			done.countDown();
+		}
+
+		Object await() {
+			try {
+				done.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new YzgRuntimeException(e);
+			}
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			if (error instanceof Error) {
+				throw (Error) error;
+			}
+			if (error != null) {
+				throw new YzgRuntimeException(error);
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.yzg365.common.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 从sql 中找出读写的表名，用于 QueryCache 的失效
+ * 只做简单的词法分析：FROM 和 JOIN 之后的表为读取的表，UPDATE INSERT INTO REPLACE INTO DELETE FROM 之后的表为写入的表
+ * 表名去掉 ` 和库名并转为小写；找不到表名时返回空数组，调用方应按"不知道"处理
+ * 解析结果按sql 缓存
+ */
+final class SqlTables {
+
+	private static final int MAX_CACHED = 4096;
+
+	private static final String[] EMPTY = new String[0];
+
+	private static final Pattern FROM = Pattern.compile(
+			"\\bfrom\\s+(.+?)(?=\\bwhere\\b|\\bgroup\\b|\\border\\b|\\blimit\\b|\\bhaving\\b|\\bunion\\b|\\bjoin\\b"
+					+ "|\\bleft\\b|\\bright\\b|\\binner\\b|\\bcross\\b|\\bstraight_join\\b|\\bon\\b|\\bfor\\b|\\)|;|$)",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private static final Pattern JOIN = Pattern.compile("\\bjoin\\s+([`\\w.]+)", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern WRITE = Pattern.compile(
+			"^\\s*(?:update(?:\\s+low_priority|\\s+ignore)*|(?:insert|replace)(?:\\s+low_priority|\\s+delayed|\\s+high_priority|\\s+ignore)*\\s+into"
+					+ "|delete(?:\\s+low_priority|\\s+quick|\\s+ignore)*\\s+from)\\s+([`\\w.]+)",
+			Pattern.CASE_INSENSITIVE);
+
+	private static final ConcurrentMap<String, String[]> READ_CACHE = new ConcurrentHashMap<String, String[]>();
+	private static final ConcurrentMap<String, String[]> WRITE_CACHE = new ConcurrentHashMap<String, String[]>();
+
+	private SqlTables() {
+	}
+
+	/**
+	 * 查询读取的表
+	 */
+	static String[] read(String sql) {
+		String[] tables = READ_CACHE.get(sql);
+		if (tables == null) {
+			tables = parseRead(sql);
+			if (READ_CACHE.size() < MAX_CACHED) {
+				READ_CACHE.putIfAbsent(sql, tables);
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * 增删改语句写入的表
+	 */
+	static String[] written(String sql) {
+		String[] tables = WRITE_CACHE.get(sql);
+		if (tables == null) {
+			Matcher m = WRITE.matcher(sql);
+			tables = m.find() ? new String[] { normalize(m.group(1)) } : EMPTY;
+			if (WRITE_CACHE.size() < MAX_CACHED) {
+				WRITE_CACHE.putIfAbsent(sql, tables);
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * 表名去掉 ` 和库名并转为小写
+	 */
+	static String normalize(String table) {
+		String name = table.replace("`", "").trim();
+		int dot = name.lastIndexOf('.');
+		if (dot >= 0) {
+			name = name.substring(dot + 1);
+		}
+		return name.toLowerCase(Locale.ENGLISH);
+	}
+
+	private static String[] parseRead(String sql) {
+		List<String> tables = new ArrayList<String>();
+		Matcher m = FROM.matcher(sql);
+		int pos = 0;
+		while (pos < sql.length() && m.find(pos)) {
+			String list = m.group(1).trim();
+			if (list.startsWith("(")) {
+				// 子查询，从括号之后继续查找
+				pos = m.start(1) + 1;
+				continue;
+			}
+			pos = m.end();
+			// FROM a, b AS x, c y
+			for (String part : list.split(",")) {
+				String token = part.trim();
+				if (token.length() == 0 || token.charAt(0) == '(') {
+					continue;
+				}
+				int space = indexOfWhitespace(token);
+				add(tables, space < 0 ? token : token.substring(0, space));
+			}
+		}
+		m = JOIN.matcher(sql);
+		while (m.find()) {
+			add(tables, m.group(1));
+		}
+		return tables.isEmpty() ? EMPTY : tables.toArray(new String[tables.size()]);
+	}
+
+	private static int indexOfWhitespace(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (Character.isWhitespace(s.charAt(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static void add(List<String> tables, String table) {
+		String name = normalize(table);
+		if (name.length() > 0 && !tables.contains(name)) {
+			tables.add(name);
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package com.yzg365.common.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * add update get delete upsert 生成的sql及其参数的取值顺序
+ * 按 (Vo类型, 操作, 表名, 是否按主键, 参与的非空字段) 缓存在 EntityMeta 中，相同形状的调用直接复用，不再拼接sql
+ * 同时保证同一种调用产生的sql文本固定，数据库驱动的预编译语句缓存(cachePrepStmts)可以命中
+ */
+final class SqlTemplate {
+
+	static final int INSERT = 0;
+	static final int UPDATE = 1;
+	static final int SELECT = 2;
+	static final int DELETE = 3;
+	/** INSERT ... ON DUPLICATE KEY UPDATE */
+	static final int UPSERT = 4;
+
+	final String sql;
+	/** 参数对应的字段，顺序与sql中的?一致 */
+	private final EntityMeta.FieldMeta[] params;
+	/** INSERT UPSERT 时一行的占位符 "(?,?,?)"，用于生成多行 VALUES */
+	private final String valuesTuple;
+	/** VALUES 之后的部分，UPSERT 时为 ON DUPLICATE KEY UPDATE ... */
+	private final String suffix;
+	/** 多行 VALUES 的sql，按行数缓存 */
+	private final ConcurrentMap<Integer, String> multiRowSqls = new ConcurrentHashMap<Integer, String>();
+
+	private SqlTemplate(String sql, List<EntityMeta.FieldMeta> params, String valuesTuple, String suffix) {
+		this.sql = sql;
+		this.params = params.toArray(new EntityMeta.FieldMeta[params.size()]);
+		this.valuesTuple = valuesTuple;
+		this.suffix = suffix;
+	}
+
+	/**
+	 * 获取一次调用对应的sql模板，第一次出现的形状生成后缓存
+	 *
+	 * @param meta
+	 * @param op
+	 *            INSERT UPDATE SELECT DELETE UPSERT
+	 * @param tableName
+	 * @param values
+	 *            EntityMeta.values 的结果
+	 * @return
+	 */
+	static SqlTemplate of(EntityMeta meta, int op, String tableName, Object[] values) {
+		boolean byPk = op != INSERT && meta.hasPkValue(values);
+		long[] mask = new long[(meta.getFieldCount() + 63) >>> 6];
+		for (EntityMeta.FieldMeta field : meta.getFields()) {
+			if (values[field.index] != null && isUsed(meta, op, byPk, field)) {
+				mask[field.index >>> 6] |= 1L << field.index;
+			}
+		}
+		Key key = new Key(op, byPk, tableName, mask);
+		SqlTemplate template = meta.getSqlTemplate(key);
+		if (template == null) {
+			template = meta.putSqlTemplate(key, build(meta, op, byPk, tableName, values));
+		}
+		return template;
+	}
+
+	/**
+	 * 字段的值是否影响生成的sql
+	 */
+	private static boolean isUsed(EntityMeta meta, int op, boolean byPk, EntityMeta.FieldMeta field) {
+		switch (op) {
+		case INSERT:
+			return field.isInsertable();
+		case UPSERT:
+			return isUpsertColumn(meta, byPk, field);
+		case UPDATE:
+			// 按@Key 更新时，@Key 字段即使标记了@Extendable 也作为条件
+			return (!byPk && field.key) || (!field.extendable && !field.primaryKey);
+		default:
+			return !byPk && field.key;
+		}
+	}
+
+	private static SqlTemplate build(EntityMeta meta, int op, boolean byPk, String tableName, Object[] values) {
+		List<EntityMeta.FieldMeta> params = new ArrayList<EntityMeta.FieldMeta>();
+		String sql;
+		String valuesTuple = null;
+		String suffix = "";
+		switch (op) {
+		case INSERT:
+			sql = buildInsert(meta, tableName, values, params);
+			valuesTuple = sql.substring(sql.lastIndexOf(" values") + " values".length());
+			break;
+		case UPSERT:
+			String insert = buildUpsertInsert(meta, byPk, tableName, values, params);
+			valuesTuple = insert.substring(insert.lastIndexOf(" values") + " values".length());
+			suffix = buildUpsertUpdate(meta, byPk, values);
+			sql = insert + suffix;
+			break;
+		case UPDATE:
+			sql = buildUpdate(meta, byPk, tableName, values, params);
+			break;
+		case SELECT:
+			sql = "SELECT " + meta.getSelectColumns() + " FROM " + tableName + buildWhere(meta, byPk, values, params);
+			break;
+		case DELETE:
+			sql = " DELETE FROM " + tableName + buildWhere(meta, byPk, values, params);
+			break;
+		default:
+			throw new IllegalArgumentException("op: " + op);
+		}
+		return new SqlTemplate(sql, params, valuesTuple, suffix);
+	}
+
+	/**
+	 * 插入所有非空字段 ，标记为@PrimaryKey和@Extendable的字段不插入
+	 */
+	private static String buildInsert(EntityMeta meta, String tableName, Object[] values, List<EntityMeta.FieldMeta> params) {
+		StringBuilder sqlColumn = new StringBuilder("(");
+		StringBuilder sqlValue = new StringBuilder("(");
+		for (EntityMeta.FieldMeta field : meta.getFields()) {
+			if (values[field.index] == null || !field.isInsertable()) {
+				continue;
+			}
+			sqlColumn.append(field.escapedColumnName).append(",");
+			sqlValue.append("?,");
+			params.add(field);
+		}
+		return "insert into " + tableName + sqlColumn.substring(0, sqlColumn.length() - 1) + ") values"
+				+ sqlValue.substring(0, sqlValue.length() - 1) + ")";
+	}
+
+	/**
+	 * 有主键值时插入主键，其它同 INSERT
+	 */
+	private static boolean isUpsertColumn(EntityMeta meta, boolean byPk, EntityMeta.FieldMeta field) {
+		return field.isInsertable() || (byPk && field == meta.getPk());
+	}
+
+	private static String buildUpsertInsert(EntityMeta meta, boolean byPk, String tableName, Object[] values,
+			List<EntityMeta.FieldMeta> params) {
+		StringBuilder sqlColumn = new StringBuilder("(");
+		StringBuilder sqlValue = new StringBuilder("(");
+		for (EntityMeta.FieldMeta field : meta.getFields()) {
+			if (values[field.index] == null || !isUpsertColumn(meta, byPk, field)) {
+				continue;
+			}
+			sqlColumn.append(field.escapedColumnName).append(",");
+			sqlValue.append("?,");
+			params.add(field);
+		}
+		if (params.isEmpty()) {
+			throw new YzgRuntimeException(meta.getEntityClass().getName() + " 没有可以插入的字段");
+		}
+		return "insert into " + tableName + sqlColumn.substring(0, sqlColumn.length() - 1) + ") values"
+				+ sqlValue.substring(0, sqlValue.length() - 1) + ")";
+	}
+
+	/**
+	 * 主键或唯一键冲突时更新插入的字段，主键和@Key 字段不更新
+	 * 没有可更新的字段时更新为原值，只保证不插入重复记录
+	 */
+	private static String buildUpsertUpdate(EntityMeta meta, boolean byPk, Object[] values) {
+		StringBuilder update = new StringBuilder(" ON DUPLICATE KEY UPDATE ");
+		EntityMeta.FieldMeta first = null;
+		boolean empty = true;
+		for (EntityMeta.FieldMeta field : meta.getFields()) {
+			if (values[field.index] == null || !isUpsertColumn(meta, byPk, field)) {
+				continue;
+			}
+			if (first == null) {
+				first = field;
+			}
+			if (field == meta.getPk() || field.key) {
+				continue;
+			}
+			update.append(empty ? "" : ",").append(field.escapedColumnName).append("=VALUES(")
+					.append(field.escapedColumnName).append(")");
+			empty = false;
+		}
+		if (empty) {
+			update.append(first.escapedColumnName).append("=").append(first.escapedColumnName);
+		}
+		return update.toString();
+	}
+
+	/**
+	 * 根据主键或者@Key 字段更新，null 字段不更新，@Extendable @PrimaryKey 字段不更新
+	 */
+	private static String buildUpdate(EntityMeta meta, boolean byPk, String tableName, Object[] values,
+			List<EntityMeta.FieldMeta> params) {
+		StringBuilder update = new StringBuilder(" UPDATE " + tableName + " SET ");
+		StringBuilder where = new StringBuilder(" WHERE 1=1 ");
+		List<EntityMeta.FieldMeta> condParams = new ArrayList<EntityMeta.FieldMeta>();
+		if (byPk) {
+			where.append(" AND " + meta.getPkColumnName() + " = ? ");
+			condParams.add(meta.getPk());
+		}
+		for (EntityMeta.FieldMeta field : meta.getFields()) {
+			if (values[field.index] == null) {
+				continue;
+			}
+			// 如果没有根据主键更新，那么根据有注解@key且 field不为null的字段更新
+			if (!byPk && field.key) {
+				where.append(" AND " + field.columnName + "= ? ");
+				condParams.add(field);
+				continue;
+			}
+			if (field.extendable || field.primaryKey) {
+				continue;
+			}
+			update.append(field.columnName + "= ?,");
+			params.add(field);
+		}
+		params.addAll(condParams);
+		return update.substring(0, update.length() - 1) + where;
+	}
+
+	/**
+	 * 主键存在时按主键，否则按所有非空的@Key 字段
+	 */
+	private static String buildWhere(EntityMeta meta, boolean byPk, Object[] values, List<EntityMeta.FieldMeta> params) {
+		StringBuilder where = new StringBuilder(" WHERE 1=1 ");
+		if (byPk) {
+			where.append(" AND " + meta.getPkColumnName() + " = ? ");
+			params.add(meta.getPk());
+		}
+		else {
+			for (EntityMeta.FieldMeta field : meta.getKeyFields()) {
+				if (values[field.index] != null) {
+					where.append(" AND " + field.columnName + "= ? ");
+					params.add(field);
+				}
+			}
+		}
+		return where.toString();
+	}
+
+	/**
+	 * 每行的参数个数
+	 */
+	int paramCount() {
+		return params.length;
+	}
+
+	/**
+	 * INSERT UPSERT 模板对应的多行插入语句 insert into t(a,b) values(?,?),(?,?),... [ON DUPLICATE KEY UPDATE ...]
+	 *
+	 * @param rows
+	 * @return
+	 */
+	String multiRowSql(int rows) {
+		if (valuesTuple == null) {
+			throw new IllegalStateException("只有 INSERT UPSERT 可以生成多行语句");
+		}
+		if (rows == 1) {
+			return sql;
+		}
+		String multi = multiRowSqls.get(rows);
+		if (multi == null) {
+			StringBuilder builder = new StringBuilder(sql.length() + (valuesTuple.length() + 1) * (rows - 1));
+			builder.append(sql, 0, sql.length() - suffix.length());
+			for (int i = 1; i < rows; i++) {
+				builder.append(',').append(valuesTuple);
+			}
+			builder.append(suffix);
+			multi = builder.toString();
+			multiRowSqls.putIfAbsent(rows, multi);
+		}
+		return multi;
+	}
+
+	/**
+	 * 按sql中?的顺序取参数
+	 *
+	 * @param values
+	 *            EntityMeta.values 的结果
+	 * @return
+	 */
+	Object[] params(Object[] values) {
+		Object[] ret = new Object[params.length];
+		for (int i = 0; i < params.length; i++) {
+			ret[i] = values[params[i].index];
+		}
+		return ret;
+	}
+
+	/**
+	 * 按sql中?的顺序取参数，只调用参与的字段的getter，用于批量插入
+	 *
+	 * @param bean
+	 * @return
+	 * @throws Exception
+	 */
+	Object[] paramsOf(Object bean) throws Exception {
+		Object[] ret = new Object[params.length];
+		for (int i = 0; i < params.length; i++) {
+			ret[i] = params[i].get(bean);
+		}
+		return ret;
+	}
+
+	/**
+	 * 缓存的键，mask 为参与生成sql的非空字段的位图
+	 */
+	static final class Key {
+		private final int op;
+		private final boolean byPk;
+		private final String tableName;
+		private final long[] mask;
+		private final int hash;
+
+		Key(int op, boolean byPk, String tableName, long[] mask) {
+			this.op = op;
+			this.byPk = byPk;
+			this.tableName = tableName;
+			this.mask = mask;
+			int h = op * 31 + (byPk ? 1 : 0);
+			h = h * 31 + (tableName == null ? 0 : tableName.hashCode());
+			this.hash = h * 31 + Arrays.hashCode(mask);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return op == other.op && byPk == other.byPk && hash == other.hash
+					&& (tableName == null ? other.tableName == null : tableName.equals(other.tableName))
+					&& Arrays.equals(mask, other.mask);
+		}
+	}
+}
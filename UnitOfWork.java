@@ -0,0 +1,417 @@
+package com.yzg365.common.dao;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 延迟执行的 add update(T) delete，通过 JdbcBaseDao.beginUnitOfWork 创建，flush 时批量执行
+ * 记录期间不访问数据库，flush 时读取各Vo 当时的字段值，生成sql 后按sql 分组，每组一次 batchUpdate
+ *
+ * 说明：
+ * 执行顺序为 先插入，再更新，最后删除；每类中各组按第一次记录的顺序执行，有外键依赖时按依赖顺序记录
+ * 例外：delete 之后又 add 了主键或@Key 相同的记录(先删后插替换一条记录)，这些 delete 在插入之前执行
+ * 同一条记录(同一个Vo 对象，或类型 表名 主键都相同)多次 update 合并为一条，后记录的非空字段优先；equals 相同的不同对象不合并
+ * 还没有 flush 的 add 之后的 update 忽略，插入时已经包含最新的值；还没有 flush 的 add 之后的 delete 两者都忽略
+ * 实现了 ITrackable 的Vo 只更新有变化的字段，同 JdbcBaseDao.update(T t)
+ * 不是线程安全的，flush 应在调用方的事务中执行
+ */
+public class UnitOfWork {
+
+	private final JdbcBaseDao dao;
+
+	private final List<Object> inserts = new ArrayList<Object>();
+	/** add 的Vo -> 记录的顺序号 */
+	private final Map<Object, Integer> insertSeqs = new IdentityHashMap<Object, Integer>();
+	/** 记录的键 -> 同一条记录的各次 update */
+	private final Map<Object, List<Object>> updates = new LinkedHashMap<Object, List<Object>>();
+	private final Map<Object, Object> deletes = new LinkedHashMap<Object, Object>();
+	/** delete 的键 -> 记录的顺序号 */
+	private final Map<Object, Integer> deleteSeqs = new HashMap<Object, Integer>();
+	/** 用于判断 delete 是否在相同键的 add 之前记录 */
+	private int sequence = 0;
+
+	UnitOfWork(JdbcBaseDao dao) {
+		this.dao = dao;
+	}
+
+	/**
+	 * 记录插入，flush 时同 JdbcBaseDao.add(T t)
+	 */
+	public <T> void add(T t) {
+		if (!insertSeqs.containsKey(t)) {
+			insertSeqs.put(t, sequence++);
+			inserts.add(t);
+		}
+	}
+
+	/**
+	 * 记录更新，flush 时同 JdbcBaseDao.update(T t)
+	 */
+	public <T> void update(T t) {
+		if (insertSeqs.containsKey(t)) {
+			return;
+		}
+		Object key = keyOf(t);
+		List<Object> beans = updates.get(key);
+		if (beans == null) {
+			beans = new ArrayList<Object>(1);
+			updates.put(key, beans);
+		}
+		// 按对象本身判断，equals 相同的不同Vo 各自保留
+		if (indexOf(beans, t) < 0) {
+			beans.add(t);
+		}
+	}
+
+	/**
+	 * 记录删除，flush 时同 JdbcBaseDao.delete(t, false)，同一条记录之前记录的 update 不再执行
+	 */
+	public <T> void delete(T t) {
+		if (insertSeqs.remove(t) != null) {
+			inserts.remove(indexOf(inserts, t));
+			return;
+		}
+		Object key = keyOf(t);
+		updates.remove(key);
+		deletes.put(key, t);
+		deleteSeqs.put(key, sequence++);
+	}
+
+	/**
+	 * 记录的还没有执行的操作数
+	 */
+	public int size() {
+		return inserts.size() + updates.size() + deletes.size();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * 放弃所有记录的操作
+	 */
+	public void clear() {
+		inserts.clear();
+		insertSeqs.clear();
+		updates.clear();
+		deletes.clear();
+		deleteSeqs.clear();
+	}
+
+	/**
+	 * 执行记录的所有操作，执行后清空记录
+	 *
+	 * @return 影响的记录数
+	 */
+	public int flush() {
+		List<Object> insertList = new ArrayList<Object>(inserts);
+		List<List<Object>> updateList = new ArrayList<List<Object>>(updates.values());
+		List<Object> deleteList = new ArrayList<Object>();
+		List<Object> earlyDeletes = new ArrayList<Object>();
+
+		Map<String, Batch> batches = new LinkedHashMap<String, Batch>();
+		try {
+			splitDeletes(earlyDeletes, deleteList);
+			clear();
+			int ret = 0;
+			if (!earlyDeletes.isEmpty()) {
+				for (Object bean : earlyDeletes) {
+					Object[] values = meta(bean).values(bean);
+					batch(batches, bean, SqlTemplate.DELETE, values).add(bean, values, null);
+				}
+				ret += execute(batches);
+				batches.clear();
+			}
+			for (Object bean : insertList) {
+				Object[] values = meta(bean).values(bean);
+				batch(batches, bean, SqlTemplate.INSERT, values).add(bean, values, null);
+			}
+			ret += execute(batches);
+			batches.clear();
+			for (List<Object> beans : updateList) {
+				Object bean = beans.get(beans.size() - 1);
+				EntityMeta meta = meta(bean);
+				Object[] values = null;
+				Object[] original = null;
+				for (Object each : beans) {
+					values = merge(values, meta.values(each));
+					if (each instanceof ITrackable && ((ITrackable) each).getOriginalValues() != null) {
+						original = ((ITrackable) each).getOriginalValues();
+					}
+				}
+				Object[] updateValues = values;
+				if (original != null && original.length == values.length) {
+					updateValues = meta.changedValues(values, original);
+					if (updateValues == null) {
+						// 没有变化
+						continue;
+					}
+				}
+				Batch batch = batch(batches, bean, SqlTemplate.UPDATE, updateValues);
+				for (Object each : beans) {
+					batch.add(each, each == bean ? updateValues : null,
+							EntityMeta.mergeOriginal(values, original));
+				}
+			}
+			ret += execute(batches);
+			batches.clear();
+			for (Object bean : deleteList) {
+				Object[] values = meta(bean).values(bean);
+				batch(batches, bean, SqlTemplate.DELETE, values).add(bean, values, null);
+			}
+			ret += execute(batches);
+			return ret;
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+	}
+
+	/**
+	 * 在之后 add 了主键或@Key 相同的记录的 delete 放入 early，在插入之前执行，其余的放入 late
+	 */
+	private void splitDeletes(List<Object> early, List<Object> late) throws Exception {
+		// 冲突的键 -> 最后一次 add 的顺序号
+		Map<Object, Integer> insertKeys = new HashMap<Object, Integer>();
+		for (Object bean : inserts) {
+			Integer seq = insertSeqs.get(bean);
+			for (Object key : conflictKeys(bean)) {
+				Integer last = insertKeys.get(key);
+				if (last == null || last < seq) {
+					insertKeys.put(key, seq);
+				}
+			}
+		}
+		for (Map.Entry<Object, Object> entry : deletes.entrySet()) {
+			Object bean = entry.getValue();
+			int seq = deleteSeqs.get(entry.getKey());
+			boolean conflict = false;
+			if (!insertKeys.isEmpty()) {
+				for (Object key : conflictKeys(bean)) {
+					Integer inserted = insertKeys.get(key);
+					if (inserted != null && seq < inserted) {
+						conflict = true;
+						break;
+					}
+				}
+			}
+			(conflict ? early : late).add(bean);
+		}
+	}
+
+	/**
+	 * 插入时可能冲突的键：(类型, 表名, 主键) 以及所有@Key 字段都有值时的 (类型, 表名, @Key 的值)
+	 */
+	private List<Object> conflictKeys(Object bean) throws Exception {
+		EntityMeta meta = meta(bean);
+		String tableName = dao.getTableName(bean);
+		List<Object> keys = new ArrayList<Object>(2);
+		Object pk = meta.getPk() == null ? null : meta.getPk().get(bean);
+		if (EntityMeta.isPkValue(pk)) {
+			keys.add(Arrays.<Object> asList(bean.getClass(), tableName, JdbcBaseDao.keyOf(pk)));
+		}
+		if (!meta.getKeyFields().isEmpty()) {
+			List<Object> key = new ArrayList<Object>(meta.getKeyFields().size() + 3);
+			key.add(bean.getClass());
+			key.add(tableName);
+			key.add("@Key");
+			for (EntityMeta.FieldMeta field : meta.getKeyFields()) {
+				Object value = field.get(bean);
+				if (value == null) {
+					key = null;
+					break;
+				}
+				key.add(JdbcBaseDao.keyOf(value));
+			}
+			if (key != null) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static EntityMeta meta(Object bean) {
+		return EntityMeta.of(bean.getClass());
+	}
+
+	/**
+	 * 同一条记录的多次更新，后面的非空字段优先
+	 */
+	private static Object[] merge(Object[] values, Object[] later) {
+		if (values == null) {
+			return later;
+		}
+		for (int i = 0; i < later.length; i++) {
+			if (later[i] != null) {
+				values[i] = later[i];
+			}
+		}
+		return values;
+	}
+
+	private Batch batch(Map<String, Batch> batches, Object bean, int op, Object[] values) {
+		EntityMeta meta = meta(bean);
+		String tableName = dao.getTableName(bean);
+		SqlTemplate template = SqlTemplate.of(meta, op, tableName, values);
+		Batch batch = batches.get(template.sql);
+		if (batch == null) {
+			batch = new Batch(meta, op, tableName, template, op == SqlTemplate.INSERT && dao.isFillGeneratedKeys()
+					&& meta.isPkGenerated(values));
+			batches.put(template.sql, batch);
+		}
+		return batch;
+	}
+
+	private int execute(Map<String, Batch> batches) {
+		int ret = 0;
+		for (Batch batch : batches.values()) {
+			int[] counts;
+			try {
+				if (batch.fillKeys) {
+					counts = dao.batchInsertReturningKeys(batch.template.sql, batch.args, batch.meta, batch.beans);
+				}
+				else {
+					counts = dao.batchUpdate(batch.template.sql, batch.args);
+				}
+			}
+			finally {
+				dao.invalidateEntityCache(batch.meta.getEntityClass(), batch.tableName);
+			}
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					ret += counts[i];
+				}
+			}
+			batch.done(counts);
+		}
+		return ret;
+	}
+
+	/**
+	 * 记录的键，有主键时为 (类型, 表名, 主键)，否则为Vo 对象本身
+	 */
+	private Object keyOf(Object bean) {
+		EntityMeta meta = meta(bean);
+		try {
+			Object pk = meta.getPk() == null ? null : meta.getPk().get(bean);
+			if (EntityMeta.isPkValue(pk)) {
+				return Arrays.<Object> asList(bean.getClass(), dao.getTableName(bean), JdbcBaseDao.keyOf(pk));
+			}
+		}
+		catch (Exception e) {
+			throw new YzgRuntimeException(e);
+		}
+		return new Identity(bean);
+	}
+
+	private static int indexOf(List<Object> list, Object bean) {
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i) == bean) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 同一条sql 的一组操作
+	 */
+	private static final class Batch {
+		final EntityMeta meta;
+		final int op;
+		final String tableName;
+		final SqlTemplate template;
+		final boolean fillKeys;
+		/** 执行语句的Vo，与 args 一一对应 */
+		final List<Object> beans = new ArrayList<Object>();
+		final List<Object[]> args = new ArrayList<Object[]>();
+		/** update 时同一条记录的各个Vo 执行后的原始值，owners 为对应的语句下标 */
+		final List<Object> merged = new ArrayList<Object>();
+		final List<Object[]> originals = new ArrayList<Object[]>();
+		final List<Integer> owners = new ArrayList<Integer>();
+
+		Batch(EntityMeta meta, int op, String tableName, SqlTemplate template, boolean fillKeys) {
+			this.meta = meta;
+			this.op = op;
+			this.tableName = tableName;
+			this.template = template;
+			this.fillKeys = fillKeys;
+		}
+
+		/**
+		 * @param bean
+		 * @param values
+		 *            为null 时表示 bean 合并到了随后添加的语句中
+		 * @param original
+		 *            执行后的原始值，只用于 update
+		 */
+		void add(Object bean, Object[] values, Object[] original) {
+			if (values != null) {
+				beans.add(bean);
+				args.add(template.params(values));
+			}
+			if (original != null) {
+				merged.add(bean);
+				originals.add(original);
+				owners.add(values != null ? args.size() - 1 : args.size());
+			}
+		}
+
+		/**
+		 * 执行成功后记录原始值，用于之后的 update 只更新变化的字段
+		 */
+		void done(int[] counts) {
+			if (op == SqlTemplate.INSERT) {
+				for (int i = 0; i < beans.size() && i < counts.length; i++) {
+					if (isSuccess(counts[i])) {
+						meta.track(beans.get(i));
+					}
+				}
+				return;
+			}
+			for (int i = 0; i < merged.size(); i++) {
+				int owner = owners.get(i);
+				if (owner < counts.length && isSuccess(counts[owner]) && merged.get(i) instanceof ITrackable) {
+					((ITrackable) merged.get(i)).setOriginalValues(originals.get(i));
+				}
+			}
+		}
+
+		private static boolean isSuccess(int count) {
+			return count > 0 || count == Statement.SUCCESS_NO_INFO;
+		}
+	}
+
+	/**
+	 * 按对象本身比较的键
+	 */
+	private static final class Identity {
+		private final Object bean;
+
+		Identity(Object bean) {
+			this.bean = bean;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(bean);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Identity && ((Identity) obj).bean == bean;
+		}
+	}
+}
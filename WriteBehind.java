@@ -0,0 +1,398 @@
+package com.yzg365.common.dao;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.seven.concurrent.LockFreeQueue;
+import com.yzg365.common.util.exception.YzgRuntimeException;
+
+/**
+ * 异步批量写入，通过 JdbcBaseDao.enableWriteBehind 打开，JdbcBaseDao.addAsync updateAsync 提交
+ * 各线程提交的写入放入 LockFreeQueue(多生产者)，由一个后台线程取出，按sql 分组后通过 batchUpdate 执行
+ * 待执行的写入达到 batchSize 或距上次执行超过 flushInterval 时执行一次
+ *
+ * 说明：
+ * 写入在后台线程的连接上执行，不参与调用方的事务
+ * 同一条sql 的写入按提交顺序执行，不同sql 之间不保证顺序
+ * 待执行的写入达到 maxPending 时，提交的线程等待，直到后台线程执行完一批
+ * close 时执行完所有已提交的写入；没有调用 close 时 JVM 退出前通过 shutdown hook 执行
+ */
+public class WriteBehind {
+
+	private static final Logger logger = LoggerFactory.getLogger(WriteBehind.class);
+
+	private final JdbcBaseDao dao;
+	private final int batchSize;
+	private final long flushIntervalNanos;
+	private final int maxPending;
+
+	private final LockFreeQueue<Write> queue = new LockFreeQueue<Write>();
+	/** 已提交还没有执行完的写入数 */
+	private final AtomicInteger pending = new AtomicInteger();
+	/** 用于提交的线程等待 */
+	private final Object space = new Object();
+	/** 用于 flush 等待 */
+	private final Object flushed = new Object();
+	/** 已执行完的写入的 submittedCount，一次 drain 开始时的 submittedCount 在 drain 结束后写入，在 flushed 上同步 */
+	private long flushedSeq = 0;
+	/** 后台线程已结束 */
+	private boolean stopped = false;
+	private final Thread flusher;
+	private final Thread shutdownHook;
+	private volatile boolean closed = false;
+
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong completedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+
+	/**
+	 * @param dao
+	 * @param batchSize
+	 *            待执行的写入达到该数量时立即执行，也是一次 batchUpdate 的最大行数
+	 * @param flushIntervalMillis
+	 *            最长的等待时间
+	 * @param maxPending
+	 *            最多待执行的写入数，超过时提交的线程等待
+	 */
+	WriteBehind(JdbcBaseDao dao, int batchSize, long flushIntervalMillis, int maxPending) {
+		this.dao = dao;
+		this.batchSize = Math.max(1, batchSize);
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+		this.maxPending = Math.max(this.batchSize, maxPending);
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runFlusher();
+			}
+		}, "WriteBehind-" + dao.getClass().getSimpleName());
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+		this.shutdownHook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				closeQuietly();
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * 提交一条写入
+	 *
+	 * @param sql
+	 * @param params
+	 * @return 执行后得到影响的行数，执行失败时 get 抛出 ExecutionException
+	 */
+	Future<Integer> submit(String sql, Object[] params) {
+		if (closed) {
+			throw new YzgRuntimeException("WriteBehind 已关闭");
+		}
+		int count = pending.incrementAndGet();
+		if (count > maxPending) {
+			awaitSpace();
+		}
+		Write write = new Write(sql, params == null ? new Object[0] : params);
+		queue.enQueue(write);
+		submittedCount.incrementAndGet();
+		if (count >= batchSize) {
+			LockSupport.unpark(flusher);
+		}
+		if (closed) {
+			// 与 close 同时提交，后台线程可能已经结束，在当前线程执行
+			closeQuietly();
+			drain();
+		}
+		return write;
+	}
+
+	/**
+	 * 待执行的写入超过 maxPending，等待后台线程执行
+	 */
+	private void awaitSpace() {
+		LockSupport.unpark(flusher);
+		boolean interrupted = false;
+		synchronized (space) {
+			while (pending.get() > maxPending && !closed) {
+				try {
+					space.wait(100);
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 等待调用前提交的写入执行完
+	 */
+	public void flush() {
+		long target = submittedCount.get();
+		LockSupport.unpark(flusher);
+		boolean interrupted = false;
+		synchronized (flushed) {
+			while (flushedSeq < target && !stopped) {
+				try {
+					flushed.wait();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 等待调用前提交的写入执行完，最多等待 timeout
+	 *
+	 * @return 是否已执行完，超时返回 false
+	 * @throws InterruptedException
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		long target = submittedCount.get();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		LockSupport.unpark(flusher);
+		synchronized (flushed) {
+			while (flushedSeq < target && !stopped) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(flushed, remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 不再接受提交，执行完所有已提交的写入后结束后台线程
+	 */
+	public void close() {
+		closeQuietly();
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		}
+		catch (IllegalStateException e) {
+			// JVM 正在退出
+		}
+	}
+
+	private void closeQuietly() {
+		closed = true;
+		LockSupport.unpark(flusher);
+		boolean interrupted = false;
+		while (flusher.isAlive() && flusher != Thread.currentThread()) {
+			try {
+				flusher.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void runFlusher() {
+		try {
+			while (true) {
+				boolean stopping = closed;
+				if (pending.get() < batchSize && !stopping) {
+					LockSupport.parkNanos(this, flushIntervalNanos);
+				}
+				drain();
+				if (stopping && pending.get() == 0) {
+					return;
+				}
+			}
+		}
+		finally {
+			synchronized (flushed) {
+				stopped = true;
+				flushed.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * 取出队列中所有的写入，按sql 分组执行
+	 * submittedCount 在写入放入队列后增加，开始时读取的 submittedCount 之前的写入都在本次取出，执行完后通知 flush
+	 */
+	private void drain() {
+		long seq = submittedCount.get();
+		Map<String, List<Write>> groups = new LinkedHashMap<String, List<Write>>();
+		Write write;
+		while ((write = queue.deQueue()) != null) {
+			List<Write> group = groups.get(write.sql);
+			if (group == null) {
+				group = new ArrayList<Write>();
+				groups.put(write.sql, group);
+			}
+			group.add(write);
+		}
+		for (Map.Entry<String, List<Write>> group : groups.entrySet()) {
+			List<Write> writes = group.getValue();
+			for (int from = 0; from < writes.size(); from += batchSize) {
+				execute(group.getKey(), writes.subList(from, Math.min(from + batchSize, writes.size())));
+			}
+		}
+		synchronized (flushed) {
+			if (seq > flushedSeq) {
+				flushedSeq = seq;
+				flushed.notifyAll();
+			}
+		}
+	}
+
+	private void execute(String sql, List<Write> writes) {
+		List<Object[]> batchArgs = new ArrayList<Object[]>(writes.size());
+		for (Write write : writes) {
+			batchArgs.add(write.params);
+		}
+		try {
+			int[] counts = dao.batchUpdate(sql, batchArgs);
+			for (int i = 0; i < writes.size(); i++) {
+				writes.get(i).complete(i < counts.length ? Integer.valueOf(counts[i]) : null, null);
+			}
+			completedCount.addAndGet(writes.size());
+		}
+		catch (Throwable e) {
+			logger.error("WriteBehind 执行失败 " + sql, e);
+			for (Write write : writes) {
+				write.complete(null, e);
+			}
+			failedCount.addAndGet(writes.size());
+		}
+		finally {
+			batchCount.incrementAndGet();
+			pending.addAndGet(-writes.size());
+			synchronized (space) {
+				space.notifyAll();
+			}
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	/**
+	 * 已提交还没有执行完的写入数
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * 执行 batchUpdate 的次数
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "WriteBehind[pending=" + getPendingCount() + " submitted=" + getSubmittedCount() + " completed="
+				+ getCompletedCount() + " failed=" + getFailedCount() + " batch=" + getBatchCount() + "]";
+	}
+
+	/**
+	 * 一条写入，同时作为返回给调用方的 Future
+	 */
+	private static final class Write implements Future<Integer> {
+		final String sql;
+		final Object[] params;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Integer count;
+		private Throwable error;
+
+		Write(String sql, Object[] params) {
+			this.sql = sql;
+			this.params = params;
+		}
+
+		void complete(Integer count, Throwable error) {
+			this.count = count;
+			this.error = error;
+			done.countDown();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Integer get() throws InterruptedException, ExecutionException {
+			done.await();
+			return result();
+		}
+
+		@Override
+		public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+				TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return result();
+		}
+
+		private Integer result() throws ExecutionException {
+			if (error != null) {
+				throw new ExecutionException(error);
+			}
+			return count;
+		}
+	}
+}